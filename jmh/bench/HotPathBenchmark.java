@@ -0,0 +1,246 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatServer;
+import server.ClientHandler;
+import server.Room;
+import server.RoomManager;
+import server.ServerConfig;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Microbenchmarks JMH dos caminhos quentes do servidor: parsing de comandos, broadcast, listas de salas e
+// de usuários. Os bytes alocados por operação e as coletas vêm do profiler de GC do JMH.
+// Uso: gradle jmh [-PjmhArgs="HotPathBenchmark.broadcast -prof gc"] (padrão: todos, com -prof gc)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class HotPathBenchmark {
+
+    // Servidor compartilhado pelas threads de processMessage
+    @State(Scope.Benchmark)
+    public static class ServerState {
+        ChatServer server;
+        final AtomicInteger nextClient = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            server = newServer();
+        }
+    }
+
+    // Cada thread usa o próprio cliente, sozinho numa sala
+    @State(Scope.Thread)
+    public static class ClientState {
+        ClientHandler client;
+
+        @Setup(Level.Trial)
+        public void setup(ServerState shared) {
+            int i = shared.nextClient.getAndIncrement();
+            client = quietly(() -> {
+                ClientHandler c = login(shared.server, "bench" + i);
+                shared.server.createRoom("sala" + i);
+                c.processMessage("ENTRAR_SALA:sala" + i);
+                drain(c);
+                return c;
+            });
+        }
+    }
+
+    // Uma sala com members membros. Duas threads esvaziam as filas de saída como fariam os writers; o que
+    // não couber é descartado pela política DROP_OLDEST, como num cliente lento
+    @State(Scope.Benchmark)
+    public static class RoomState {
+        @Param({"10", "1000", "10000"})
+        int members;
+
+        ClientHandler[] users;
+        Room room;
+        final AtomicInteger nextSender = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean(true);
+        private final List<Thread> drainers = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ChatServer server = newServer();
+            users = quietly(() -> joinRoom(server, "sala", members));
+            room = server.getRoomManager().getRoom("sala");
+            for (int d = 0; d < 2; d++) {
+                int part = d;
+                Thread drainer = new Thread(() -> {
+                    while (draining.get()) {
+                        for (int i = part; i < users.length; i += 2) {
+                            drain(users[i]);
+                        }
+                    }
+                }, "bench-drainer-" + d);
+                drainer.setDaemon(true);
+                drainer.start();
+                drainers.add(drainer);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stopDrainers() throws InterruptedException {
+            draining.set(false);
+            for (Thread drainer : drainers) {
+                drainer.join();
+            }
+        }
+    }
+
+    // Remetente de cada thread, entre os membros da sala
+    @State(Scope.Thread)
+    public static class SenderState {
+        ClientHandler sender;
+
+        @Setup(Level.Trial)
+        public void setup(RoomState room) {
+            sender = room.users[room.nextSender.getAndIncrement() % room.users.length];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RoomsState {
+        @Param({"100", "10000"})
+        int rooms;
+
+        RoomManager manager;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            manager = quietly(() -> {
+                RoomManager m = new RoomManager();
+                for (int i = 0; i < rooms; i++) {
+                    m.restoreRoom("sala" + i);
+                }
+                return m;
+            });
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RosterState {
+        @Param({"10", "1000"})
+        int members;
+
+        ChatServer server;
+        int roomId;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            server = newServer();
+            quietly(() -> joinRoom(server, "sala", members));
+            roomId = server.getRoomId("sala");
+        }
+    }
+
+    @Benchmark
+    public void processMessageChat(ClientState state) {
+        state.client.processMessage("MENSAGEM:ola, tudo bem com voces?");
+        drain(state.client);
+    }
+
+    @Benchmark
+    public void processMessageListRooms(ClientState state) {
+        state.client.processMessage("LISTAR_SALAS");
+        drain(state.client);
+    }
+
+    @Benchmark
+    public void processMessageUnknown(ClientState state) {
+        state.client.processMessage("COMANDO_INEXISTENTE:abc");
+        drain(state.client);
+    }
+
+    // Fan-out de uma mensagem de chat para toda a sala, com várias threads enviando ao mesmo tempo
+    @Benchmark
+    public void broadcast(RoomState room, SenderState sender) {
+        room.room.broadcastChatMessage("mensagem de teste", sender.sender);
+    }
+
+    @Benchmark
+    public String listRooms(RoomsState state) {
+        return state.manager.listRooms();
+    }
+
+    @Benchmark
+    public String getUsersInRoom(RosterState state) {
+        return state.server.getUsersInRoom(state.roomId);
+    }
+
+    private static ChatServer newServer() {
+        ServerConfig config = new ServerConfig();
+        config.setHistoryReplay(0);
+        return quietly(() -> new ChatServer(config));
+    }
+
+    private static ClientHandler login(ChatServer server, String name) {
+        ClientHandler client = new ClientHandler(server);
+        client.processMessage("login:" + name + ":");
+        return client;
+    }
+
+    // Entra direto pelo servidor (sem montar a lista de usuários a cada entrada) e esvazia as
+    // filas periodicamente, para os avisos de entrada não encherem as filas durante a preparação
+    private static ClientHandler[] joinRoom(ChatServer server, String roomName, int members) {
+        server.createRoom(roomName);
+        ClientHandler[] users = new ClientHandler[members];
+        for (int i = 0; i < members; i++) {
+            users[i] = login(server, "bench" + i);
+            server.enterRoom(users[i], roomName);
+            if (i % 256 == 255) {
+                for (int j = 0; j <= i; j++) {
+                    drain(users[j]);
+                }
+            }
+        }
+        for (ClientHandler user : users) {
+            drain(user);
+        }
+        return users;
+    }
+
+    private static void drain(ClientHandler client) {
+        while (client.getOutbound().poll() != null) {
+            // só descarta
+        }
+    }
+
+    private interface Preparation<T> {
+        T get();
+    }
+
+    // Executa a preparação sem as mensagens de log do servidor
+    private static <T> T quietly(Preparation<T> setup) {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return setup.get();
+        } finally {
+            System.setOut(original);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package bench;
+
+import server.ChatServer;
+import server.ServerConfig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compara quantas conexões ociosas cada modo de execução suporta e quanto custam em memória/threads.
+// Uso: java bench.ConnectionBenchmark [conexoes] [modo|all]
+// Com "all" cada modo roda em uma JVM separada para que um não contamine a medição do outro.
+public class ConnectionBenchmark {
+    private static final int BASE_PORT = 23450;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String mode = args.length > 1 ? args[1] : "all";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : BASE_PORT;
+
+        if (mode.equals("all")) {
+            System.out.printf("%-8s %8s %8s %10s %12s %10s %10s%n",
+                    "modo", "conexoes", "threads", "heap(MB)", "nao-heap(MB)", "rss(MB)", "tempo(ms)");
+            ServerConfig.ExecutionMode[] modes = ServerConfig.ExecutionMode.values();
+            for (int i = 0; i < modes.length; i++) {
+                runInChildJvm(connections, modes[i].name(), BASE_PORT + i);
+            }
+        } else {
+            run(connections, ServerConfig.ExecutionMode.valueOf(mode.toUpperCase()), port);
+        }
+    }
+
+    private static void runInChildJvm(int connections, String mode, int port) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConnectionBenchmark.class.getName(), String.valueOf(connections), mode, String.valueOf(port));
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    System.out.println(line.substring(7));
+                }
+            }
+        }
+        process.waitFor();
+    }
+
+    // As pilhas das threads de plataforma ficam fora do heap; o RSS do processo mostra esse custo (só Linux)
+    private static double residentMemoryMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    String kb = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kb) / 1024.0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // indisponível neste sistema
+        }
+        return -1;
+    }
+
+    private static void run(int connections, ServerConfig.ExecutionMode mode, int port) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(port);
+        config.setMode(mode);
+        ChatServer server = new ChatServer(config);
+
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        List<Socket> sockets = new ArrayList<>();
+        long start = System.nanoTime();
+        int opened = 0;
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("login:bench" + i + ":");
+                opened++;
+            }
+            // Confirma que o último login foi processado
+            BufferedReader in = new BufferedReader(new InputStreamReader(sockets.get(sockets.size() - 1).getInputStream()));
+            in.readLine();
+        } catch (IOException e) {
+            System.err.println("Parou em " + opened + " conexões: " + e.getMessage());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Espera o servidor registrar todos os logins
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (server.getClientCount() < opened && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        System.gc();
+        Thread.sleep(200);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        double heapMb = memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+        double nonHeapMb = memory.getNonHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+
+        System.out.printf("RESULT %-8s %8d %8d %10.1f %12.1f %10.1f %10d%n",
+                mode.name().toLowerCase(), server.getClientCount(), threads.getThreadCount(),
+                heapMb, nonHeapMb, residentMemoryMb(), elapsedMs);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+        System.exit(0);
+    }
+}
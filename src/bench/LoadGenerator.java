@@ -0,0 +1,216 @@
+package bench;
+
+import client.ChatClient;
+import protocol.Tls;
+import server.LatencyHistogram;
+
+import javax.net.ssl.SSLContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Gerador de carga sem console: simula muitos usuários com o ChatClient contra um ChatServer local.
+// Cada mensagem leva o System.nanoTime() do envio; como todos os clientes rodam nesta JVM, a latência
+// de entrega (envio -> MSG recebida por outro usuário) é medida no receptor sem depender de relógios.
+// Uso: java bench.LoadGenerator [porta] [--users=N] [--rooms=N] [--rate=msgs/s por usuário]
+//      [--duration-s=N] [--warmup-s=N] [--size=bytes] [--binary] [--deflate] [--ports=p1,p2,...]
+//      [--tls] [--truststore=arquivo] [--truststore-password=senha]
+// Com --ports os usuários são distribuídos entre os nós de um cluster local. Com --tls todos os clientes
+// usam o mesmo SSLContext, então só a primeira conexão faz o handshake completo.
+public class LoadGenerator {
+    private static final String HOST = "localhost";
+
+    private int[] ports = {12345};
+    private int users = 1000;
+    private int rooms = 10;
+    private double rate = 1.0;
+    private int durationS = 20;
+    private int warmupS = 5;
+    private int size = 64;
+    private boolean binary = false;
+    private boolean deflate = false;
+    private boolean tls = false;
+    private String truststore = null;
+    private String truststorePassword = "";
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private volatile boolean recording = false;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            generator.apply(arg);
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    private void apply(String arg) {
+        if (!arg.startsWith("--")) {
+            ports = new int[] {Integer.parseInt(arg)};
+            return;
+        }
+        String[] parts = arg.substring(2).split("=", 2);
+        String value = parts.length > 1 ? parts[1] : "";
+        switch (parts[0]) {
+            case "users": users = Integer.parseInt(value); break;
+            case "rooms": rooms = Math.max(1, Integer.parseInt(value)); break;
+            case "rate": rate = Double.parseDouble(value); break;
+            case "duration-s": durationS = Integer.parseInt(value); break;
+            case "warmup-s": warmupS = Integer.parseInt(value); break;
+            case "size": size = Integer.parseInt(value); break;
+            case "binary": binary = true; break;
+            case "deflate": deflate = true; break;
+            case "tls": tls = true; break;
+            case "truststore": tls = true; truststore = value; break;
+            case "truststore-password": truststorePassword = value; break;
+            case "ports":
+                String[] list = value.split(",");
+                ports = new int[list.length];
+                for (int i = 0; i < list.length; i++) {
+                    ports[i] = Integer.parseInt(list[i].trim());
+                }
+                break;
+            default: System.err.println("Opção inválida ignorada: " + arg);
+        }
+    }
+
+    private void run() throws Exception {
+        ChatClient.ChatListener listener = new ChatClient.ChatListener() {
+            @Override
+            public void onChatMessage(String usuario, String sala, String conteudo) {
+                received.increment();
+                if (recording) {
+                    long sentAt = parseTimestamp(conteudo);
+                    if (sentAt > 0) {
+                        latency.record((System.nanoTime() - sentAt) / 1000);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                // Agrupa sem os números (ex.: o retry-after de cada ERRO de limite de taxa)
+                errors.computeIfAbsent(message.replaceAll("\\d+", "N"), m -> new LongAdder()).increment();
+            }
+        };
+
+        SSLContext tlsContext = tls ? Tls.clientContext(truststore, truststorePassword) : null;
+
+        // Um administrador cria as salas do teste
+        ChatClient admin = new ChatClient(HOST, ports[0], binary, deflate, tlsContext, listener);
+        if (!admin.startHeadless()) {
+            System.err.println("Não foi possível conectar em " + HOST + ":" + ports[0]);
+            return;
+        }
+        admin.execute("/login carga-admin admin123");
+        // Os pedidos vão todos de uma vez; os usuários só entram depois que as salas existem
+        List<CompletableFuture<String>> created = new ArrayList<>(rooms);
+        for (int r = 0; r < rooms; r++) {
+            created.add(admin.request("/criar carga" + r));
+        }
+        for (CompletableFuture<String> reply : created) {
+            try {
+                reply.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("Sala não confirmada: " + e.getMessage());
+            }
+        }
+
+        System.out.println("Conectando " + users + " usuários em " + rooms + " salas...");
+        long connectStart = System.nanoTime();
+        List<ChatClient> clients = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            ChatClient client = new ChatClient(HOST, ports[i % ports.length], binary, deflate, tlsContext, listener);
+            if (!client.startHeadless()) {
+                System.err.println("Parou em " + i + " usuários");
+                break;
+            }
+            client.execute("/login carga" + i);
+            client.execute("/entrar carga" + (i % rooms));
+            clients.add(client);
+        }
+        System.out.printf("%d usuários conectados em %d ms%n",
+                clients.size(), (System.nanoTime() - connectStart) / 1_000_000);
+
+        // Cada usuário envia na taxa pedida, com início espalhado para não sincronizar as rajadas
+        String padding = "x".repeat(Math.max(0, size - 24));
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long periodUs = Math.max(1, (long) (1_000_000 / rate));
+        for (ChatClient client : clients) {
+            long delay = ThreadLocalRandom.current().nextLong(periodUs);
+            senders.scheduleAtFixedRate(() -> {
+                if (client.isConnected()) {
+                    client.execute("/msg t" + System.nanoTime() + " " + padding);
+                    sent.increment();
+                }
+            }, delay, periodUs, TimeUnit.MICROSECONDS);
+        }
+
+        Thread.sleep(warmupS * 1000L);
+        long sentBefore = sent.sum();
+        long receivedBefore = received.sum();
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(durationS * 1000L);
+        recording = false;
+        double elapsedS = (System.nanoTime() - start) / 1e9;
+        long sentCount = sent.sum() - sentBefore;
+        long receivedCount = received.sum() - receivedBefore;
+
+        senders.shutdownNow();
+        for (ChatClient client : clients) {
+            client.close();
+        }
+        admin.close();
+
+        System.out.println("\n=== RESULTADO ===");
+        System.out.printf("usuários: %d, salas: %d, nós: %d, taxa: %.2f msgs/s por usuário, protocolo: %s%n",
+                clients.size(), rooms, ports.length, rate, (binary ? "binário" : "texto") + (deflate ? "+deflate" : "") + (tls ? "+tls" : ""));
+        System.out.printf("enviadas: %d (%.0f msgs/s)%n", sentCount, sentCount / elapsedS);
+        System.out.printf("entregues: %d (%.0f msgs/s)%n", receivedCount, receivedCount / elapsedS);
+        System.out.printf("latência de entrega (ms): p50=%.2f p99=%.2f p999=%.2f max=%.2f (%d amostras)%n",
+                latency.percentile(0.50) / 1000.0, latency.percentile(0.99) / 1000.0,
+                latency.percentile(0.999) / 1000.0, latency.max() / 1000.0, latency.count());
+        long errorCount = 0;
+        for (LongAdder count : errors.values()) {
+            errorCount += count.sum();
+        }
+        System.out.println("erros: " + errorCount);
+        for (Map.Entry<String, LongAdder> error : errors.entrySet()) {
+            System.out.println("  " + error.getValue().sum() + "x " + error.getKey());
+        }
+    }
+
+    // Conteúdo no formato "t<nanoTime> ..."
+    private static long parseTimestamp(String conteudo) {
+        if (conteudo.isEmpty() || conteudo.charAt(0) != 't') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 1; i < conteudo.length(); i++) {
+            char c = conteudo.charAt(i);
+            if (c == ' ') {
+                return value;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,296 @@
+package bench;
+
+import protocol.Tls;
+import server.ChatServer;
+import server.LatencyHistogram;
+import server.ServerConfig;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Custo do TLS comparado com texto aberto: tempo de conexão (connect + handshake + login) com handshake
+// completo e com sessão retomada, e vazão de mensagens entre dois usuários de uma sala. Gera um keystore
+// temporário com o keytool da JDK (certificado autoassinado para localhost, que o cliente usa também como
+// truststore) e sobe nesta JVM um servidor sem TLS e outro com TLS; as rodadas alternam os dois.
+// Uso: java bench.TlsBenchmark [--mode=threads|nio] [--connections=N] [--messages=N] [--size=bytes]
+//      [--rounds=N] [--port=N]
+// O cpu(ms) é do processo inteiro (cliente e servidor cifram e decifram aqui).
+public class TlsBenchmark {
+    private static final String HOST = "localhost";
+    private static final String PASSWORD = "bench-tls";
+    private static final int WINDOW = 256; // mensagens em trânsito: o remetente não passa a fila do destinatário
+
+    private ServerConfig.ExecutionMode mode = ServerConfig.ExecutionMode.THREADS;
+    private int connections = 300;
+    private int messages = 20000;
+    private int size = 128;
+    private int rounds = 3;
+    private int port = 23470;
+    private Path keystore;
+    private SSLContext client; // compartilhado: guarda as sessões para retomar
+    private int round;
+
+    public static void main(String[] args) throws Exception {
+        TlsBenchmark benchmark = new TlsBenchmark();
+        for (String arg : args) {
+            benchmark.apply(arg);
+        }
+        benchmark.run();
+        System.exit(0);
+    }
+
+    private void apply(String arg) {
+        String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+        String value = parts.length > 1 ? parts[1] : "";
+        switch (parts[0]) {
+            case "mode": mode = ServerConfig.ExecutionMode.valueOf(value.toUpperCase()); break;
+            case "connections": connections = Integer.parseInt(value); break;
+            case "messages": messages = Integer.parseInt(value); break;
+            case "size": size = Integer.parseInt(value); break;
+            case "rounds": rounds = Math.max(1, Integer.parseInt(value)); break;
+            case "port": port = Integer.parseInt(value); break;
+            default: System.err.println("Opção inválida ignorada: " + arg);
+        }
+    }
+
+    private void run() throws Exception {
+        Path dir = Files.createTempDirectory("chat-tls");
+        keystore = dir.resolve("servidor.p12");
+        generateKeystore(keystore);
+        client = Tls.clientContext(keystore.toString(), PASSWORD);
+
+        // O servidor escreve uma linha por conexão: só os resultados vão para a saída
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        startServer(port, null);
+        startServer(port + 1, keystore);
+        Thread.sleep(500);
+
+        out.printf("modo %s, %d conexões e %d mensagens de %d bytes por rodada%n",
+                mode.name().toLowerCase(), connections, messages, size);
+        // Aquecimento: o JIT compila os dois caminhos antes das rodadas medidas
+        connect(port, false, Math.min(connections, 100));
+        connect(port + 1, true, Math.min(connections, 100));
+        throughput(port, false, Math.min(messages, 5000));
+        throughput(port + 1, true, Math.min(messages, 5000));
+
+        List<String> connectLines = new ArrayList<>();
+        List<String> throughputLines = new ArrayList<>();
+        for (int r = 0; r < rounds; r++) {
+            connectLines.add(connect(port, false, connections).format("texto"));
+            connectLines.add(connect(port + 1, false, connections).format("tls completo"));
+            connectLines.add(connect(port + 1, true, connections).format("tls retomado"));
+            throughputLines.add(throughput(port, false, messages).format("texto"));
+            throughputLines.add(throughput(port + 1, true, messages).format("tls"));
+        }
+
+        out.printf("%n%-14s %9s %9s %9s %11s %10s%n", "conexao", "conexoes", "p50(us)", "p99(us)", "conexoes/s", "retomadas");
+        connectLines.forEach(out::println);
+        out.printf("%n%-14s %9s %9s %9s %9s%n", "vazao", "msgs", "msgs/s", "MB/s", "cpu(ms)");
+        throughputLines.forEach(out::println);
+
+        Files.deleteIfExists(keystore);
+        Files.deleteIfExists(dir);
+    }
+
+    private static void generateKeystore(Path keystore) throws IOException, InterruptedException {
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "chat", "-keyalg", "EC",
+                "-groupname", "secp256r1", "-validity", "2", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", "PKCS12",
+                "-keystore", keystore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool falhou ao gerar " + keystore);
+        }
+    }
+
+    private void startServer(int serverPort, Path keystore) {
+        ServerConfig config = new ServerConfig();
+        config.setPort(serverPort);
+        config.setMode(mode);
+        config.setResumeGraceSeconds(0); // cada conexão medida sai de vez
+        if (keystore != null) {
+            config.setTlsKeystore(keystore.toString());
+            config.setTlsPassword(PASSWORD);
+        }
+        Thread thread = new Thread(new ChatServer(config)::start, "bench-server-" + serverPort);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // TCP_NODELAY nos dois casos, para que o Nagle não pese só de um lado
+    private Socket open(int serverPort, SSLContext tls) throws IOException {
+        if (tls == null) {
+            Socket socket = new Socket(HOST, serverPort);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+        SSLSocket socket = (SSLSocket) tls.getSocketFactory().createSocket(HOST, serverPort);
+        socket.setSSLParameters(Tls.parameters(tls, true));
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static final class ConnectResult {
+        final LatencyHistogram micros = new LatencyHistogram();
+        int resumed;
+        double elapsedS;
+        boolean tls;
+
+        String format(String name) {
+            return String.format("%-14s %9d %9d %9d %11.0f %10s", name, micros.count(), micros.percentile(0.5),
+                    micros.percentile(0.99), micros.count() / elapsedS, tls ? String.valueOf(resumed) : "-");
+        }
+    }
+
+    // Conexões em sequência, cada uma até a resposta do login. tls e !resume: um SSLContext novo por
+    // conexão (criado antes da medida), sem sessão guardada, então todo handshake é completo.
+    private ConnectResult connect(int serverPort, boolean resume, int count) throws IOException, GeneralSecurityException {
+        boolean tls = serverPort != port;
+        List<SSLContext> fresh = new ArrayList<>();
+        if (tls && !resume) {
+            for (int i = 0; i < count; i++) {
+                fresh.add(Tls.clientContext(keystore.toString(), PASSWORD));
+            }
+        }
+        ConnectResult result = new ConnectResult();
+        result.tls = tls;
+        round++;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long connectStart = System.nanoTime();
+            long startMillis = System.currentTimeMillis();
+            try (Socket socket = open(serverPort, !tls ? null : resume ? client : fresh.get(i))) {
+                socket.getOutputStream().write(("login:tb" + round + "_" + i + ":\n").getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().flush();
+                socket.getInputStream().read();
+                result.micros.record((System.nanoTime() - connectStart) / 1000);
+                if (tls && ((SSLSocket) socket).getSession().getCreationTime() < startMillis) {
+                    result.resumed++;
+                }
+            }
+        }
+        result.elapsedS = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    private static final class ThroughputResult {
+        long count;
+        double elapsedS;
+        long cpuNanos;
+        int size;
+
+        String format(String name) {
+            return String.format("%-14s %9d %9.0f %9.1f %9d", name, count, count / elapsedS,
+                    count * (double) size / elapsedS / (1024 * 1024), TimeUnit.NANOSECONDS.toMillis(cpuNanos));
+        }
+    }
+
+    // Um remetente e um destinatário numa sala; o tempo vai do primeiro envio à última mensagem recebida
+    private ThroughputResult throughput(int serverPort, boolean tls, int count) throws Exception {
+        SSLContext context = tls ? client : null;
+        round++;
+        String room = "tb" + round;
+        try (Socket sender = open(serverPort, context); Socket receiver = open(serverPort, context)) {
+            OutputStream senderOut = sender.getOutputStream();
+            senderOut.write(("login:tb" + round + "s:admin123\nCRIAR_SALA:" + room + "\nENTRAR_SALA:" + room + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            senderOut.flush();
+            BufferedReader senderIn = new BufferedReader(new InputStreamReader(sender.getInputStream(), StandardCharsets.UTF_8));
+            waitFor(senderIn, "SUCESSO:Entrou");
+            OutputStream receiverOut = receiver.getOutputStream();
+            receiverOut.write(("login:tb" + round + "r:\nENTRAR_SALA:" + room + "\n").getBytes(StandardCharsets.UTF_8));
+            receiverOut.flush();
+            BufferedReader receiverIn = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+            waitFor(receiverIn, "SUCESSO:Entrou");
+
+            // O eco das próprias mensagens volta para o remetente: é lido e descartado
+            Thread drain = new Thread(() -> {
+                try {
+                    while (senderIn.readLine() != null) {
+                        // descarta
+                    }
+                } catch (IOException e) {
+                    // fim do teste
+                }
+            }, "tls-bench-eco");
+            drain.setDaemon(true);
+            drain.start();
+
+            AtomicLong received = new AtomicLong();
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while (received.get() < count && (line = receiverIn.readLine()) != null) {
+                        if (line.startsWith("MSG:")) {
+                            received.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    // conexão caiu: o remetente para pelo prazo abaixo
+                }
+            }, "tls-bench-destino");
+            reader.start();
+
+            byte[] message = ("MENSAGEM:" + "x".repeat(Math.max(1, size)) + "\n").getBytes(StandardCharsets.UTF_8);
+            long cpuStart = processCpuNanos();
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(60);
+            for (int i = 0; i < count && System.nanoTime() < deadline; i++) {
+                while (i - received.get() >= WINDOW && System.nanoTime() < deadline) {
+                    senderOut.flush();
+                    LockSupport.parkNanos(20_000);
+                }
+                senderOut.write(message);
+            }
+            senderOut.flush();
+            reader.join(TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime())) + 1);
+
+            ThroughputResult result = new ThroughputResult();
+            result.elapsedS = (System.nanoTime() - start) / 1e9;
+            result.cpuNanos = processCpuNanos() - cpuStart;
+            result.count = received.get();
+            result.size = size;
+            senderOut.write("ENCERRAR_SALA:".concat(room).concat("\n").getBytes(StandardCharsets.UTF_8));
+            senderOut.flush();
+            return result;
+        }
+    }
+
+    private static void waitFor(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return;
+            }
+        }
+        throw new IOException("conexão encerrada antes de " + prefix);
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
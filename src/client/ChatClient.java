@@ -1,83 +1,286 @@
 package client;
 
+import protocol.BinaryCodec;
+import protocol.Command;
+import protocol.FrameDecoder;
+import protocol.Reply;
+import protocol.Tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 
 public class ChatClient {
+    private static final int RESUME_ATTEMPTS = 8;
+    private static final long RESUME_BASE_DELAY_MS = 250;
+    private static final long RESUME_MAX_DELAY_MS = 8000;
+    private static final DateTimeFormatter SEARCH_TIME = DateTimeFormatter.ofPattern("dd/MM HH:mm")
+            .withZone(ZoneId.systemDefault());
+
     private Socket socket;
-    private BufferedReader input;
+    private InputStream input;
     private PrintWriter output;
     private CommandProcessor processor;
-    private boolean conected = false;
+    private volatile boolean conected = false;
+    private final String host;
+    private final int port;
+    private final SSLContext tls; // null: texto aberto; o mesmo contexto em toda reconexão retoma a sessão TLS
+    private volatile String sessionToken; // último SESSAO recebido; usado uma vez, para RETOMAR após uma queda
     private String username = "";
+    private final ChatListener listener; // modo sem console; null no modo interativo
+    private ConsoleRenderer console;     // saída do modo interativo; criado em start()
+    // Pedidos feitos com request(), esperando a resposta com o mesmo id
+    private final Map<Integer, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+
+    // Recebe as mensagens no modo sem console (usado pelo gerador de carga)
+    public interface ChatListener {
+        void onChatMessage(String usuario, String sala, String conteudo);
+
+        void onError(String message);
+    }
 
     public ChatClient(String host, int port) {
+        this(host, port, false);
+    }
+
+    // binary: pede o protocolo binário no login
+    public ChatClient(String host, int port, boolean binary) {
+        this(host, port, binary, null);
+    }
+
+    // Com listener o cliente não usa o console: nada é impresso e as mensagens vão para o listener
+    public ChatClient(String host, int port, boolean binary, ChatListener listener) {
+        this(host, port, binary, false, listener);
+    }
+
+    // compress: pede que o servidor envie tudo comprimido depois do login
+    public ChatClient(String host, int port, boolean binary, boolean compress, ChatListener listener) {
+        this(host, port, binary, compress, null, listener);
+    }
+
+    // tls: conecta com TLS usando este contexto (veja protocol.Tls.clientContext)
+    public ChatClient(String host, int port, boolean binary, boolean compress, SSLContext tls, ChatListener listener) {
+        this.listener = listener;
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
         try{
-            socket = new Socket(host, port);
-            input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            output = new PrintWriter(socket.getOutputStream(), true);
-            processor = new CommandProcessor(output);
+            OutputStream rawOutput = openConnection();
+            processor = new CommandProcessor(output, rawOutput, binary, compress);
             conected = true;
+            if (listener != null) {
+                return;
+            }
 
             System.out.println("Conectado ao servidor " + host + ":" + port);
             System.out.println("Digite /login <nome> para começar");
             System.out.println("Digite /ajuda para ver os comandos disponíveis");
         }catch(IOException e){
-            System.err.println("Erro ao conectar ao servidor: " + e.getMessage());
+            if (listener != null) {
+                listener.onError("Erro ao conectar ao servidor: " + e.getMessage());
+            } else {
+                System.err.println("Erro ao conectar ao servidor: " + e.getMessage());
+            }
+        }
+    }
+
+
+    // Abre o socket e os streams; devolve a saída em bytes, usada pelo protocolo binário
+    private OutputStream openConnection() throws IOException {
+        if (tls != null) {
+            SSLSocket tlsSocket = (SSLSocket) tls.getSocketFactory().createSocket(host, port);
+            tlsSocket.setSSLParameters(Tls.parameters(tls, true));
+            // O handshake tem várias idas e voltas pequenas: com o Nagle cada uma pode esperar o ACK atrasado
+            tlsSocket.setTcpNoDelay(true);
+            tlsSocket.startHandshake();
+            socket = tlsSocket;
+        } else {
+            socket = new Socket(host, port);
         }
+        // Lê bytes: depois do login o servidor pode passar para o protocolo binário
+        input = new BufferedInputStream(socket.getInputStream());
+        OutputStream rawOutput = new BufferedOutputStream(socket.getOutputStream());
+        // O servidor codifica as mensagens em UTF-8
+        output = new PrintWriter(new OutputStreamWriter(rawOutput, StandardCharsets.UTF_8), true);
+        return rawOutput;
     }
 
+    // Conexão caiu com uma sessão ativa: reconecta e retoma com o token (salas e mensagens perdidas
+    // voltam na resposta, sem novo login). A espera cresce a cada tentativa e é sorteada dentro do
+    // intervalo, para que milhares de clientes derrubados juntos não voltem todos no mesmo instante.
+    private boolean resumeSession() {
+        String token = sessionToken;
+        sessionToken = null;
+        long maxDelayMs = RESUME_BASE_DELAY_MS;
+        for (int attempt = 0; attempt < RESUME_ATTEMPTS && conected; attempt++) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelayMs + 1));
+                OutputStream rawOutput = openConnection();
+                processor.reconnected(output, rawOutput);
+                startReceiver(input);
+                processor.resume(token);
+                return true;
+            } catch (IOException e) {
+                maxDelayMs = Math.min(maxDelayMs * 2, RESUME_MAX_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void startReceiver(InputStream in) {
+        Thread threadReception = new Thread(new MessageReceiver(in), "receptor-" + socket.getLocalPort());
+        // No modo interativo o receptor não é daemon, como antes
+        threadReception.setDaemon(listener != null);
+        threadReception.start();
+    }
 
     public void start(){
         if(!conected){
             System.err.println("Não foi possível conectar ao servidor.");
             return;
         }
-        Thread threadReception = new Thread(new MessageReceiver());
-        threadReception.start();
+        console = new ConsoleRenderer();
+        console.start();
+        startReceiver(input);
 
         // Thread principal para entrada do usuário
         Scanner scanner = new Scanner(System.in);
         String command;
 
-        while (conected && (command = scanner.nextLine()) != null) {
-            if (command.trim().isEmpty()) {
-                continue;
-            }
+        try {
+            while (conected && (command = scanner.nextLine()) != null) {
+                if (command.trim().isEmpty()) {
+                    continue;
+                }
 
-            // Processa comandos especiais do cliente
-            if (command.equals("/sairServidor") || command.equals("/quit")) {
-                disconnect();
-                break;
-            } else if (command.equals("/ajuda") || command.equals("/help")) {
-                showHelp();
-            } else if (command.startsWith("/login ")) {
-                // Extrai o nome do usuário para uso local
-                String[] partes = command.split(" ");
-                if (partes.length >= 2) {
-                    username = partes[1];
+                // Processa comandos especiais do cliente
+                if (command.equals("/sairServidor") || command.equals("/quit")) {
+                    disconnect();
+                    break;
+                } else if (command.equals("/ajuda") || command.equals("/help")) {
+                    showHelp();
+                } else if (command.startsWith("/login ")) {
+                    // Extrai o nome do usuário para uso local
+                    String[] partes = command.split(" ");
+                    if (partes.length >= 2) {
+                        username = partes[1];
+                    }
+                    processor.processCommands(command);
+                } else {
+                    // Processa outros comandos
+                    processor.processCommands(command);
                 }
-                processor.processCommands(command);
-            } else {
-                // Processa outros comandos
-                processor.processCommands(command);
             }
+        } finally {
+            scanner.close();
+            console.close(); // escreve o que ainda estiver na fila
+        }
+    }
+
+
+    // Modo sem console: só inicia o receptor; os comandos chegam por execute()
+    public boolean startHeadless(){
+        if(!conected){
+            return false;
+        }
+        startReceiver(input);
+        return true;
+    }
+
+    // Mesmo formato dos comandos digitados no console ("/login nome", "/msg texto", ...)
+    public void execute(String command){
+        if (command.startsWith("/login ")) {
+            String[] partes = command.split(" ");
+            if (partes.length >= 2) {
+                username = partes[1];
+            }
+        }
+        processor.processCommands(command);
+    }
+
+    // Como execute(), mas com id de requisição: o futuro recebe a primeira linha da resposta ("SUCESSO:...",
+    // "ERRO:...", "SALAS:..."), mesmo com outros comandos enviados antes dela chegar. Assim os comandos
+    // podem seguir em sequência sem esperar cada resposta, e quem precisa dela espera só por ela.
+    public CompletableFuture<String> request(String command){
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        if (!conected) {
+            reply.completeExceptionally(new IOException("não conectado"));
+            return reply;
+        }
+        if (command.startsWith("/login ")) {
+            String[] partes = command.split(" ");
+            if (partes.length >= 2) {
+                username = partes[1];
+            }
+        }
+        int id = processor.nextRequestId();
+        pendingRequests.put(id, reply);
+        if (!processor.processCommands(command, id)) {
+            pendingRequests.remove(id);
+            reply.completeExceptionally(new IllegalArgumentException("Comando inválido: " + command));
+        }
+        return reply;
+    }
+
+    private void completeRequest(int id, String reply){
+        CompletableFuture<String> future = pendingRequests.remove(id);
+        if (future != null) {
+            future.complete(reply);
+        }
+    }
+
+    // A conexão acabou sem as respostas: quem espera não fica preso
+    private void failPendingRequests(String reason){
+        for (Integer id : pendingRequests.keySet()) {
+            CompletableFuture<String> future = pendingRequests.remove(id);
+            if (future != null) {
+                future.completeExceptionally(new IOException(reason));
+            }
+        }
+    }
+
+    public boolean isConnected(){
+        return conected;
+    }
+
+    public void close(){
+        if (conected) {
+            disconnect();
         }
-        scanner.close();
     }
 
 
     private void disconnect(){
         try{
             conected = false;
-            if(output != null){
-                output.println("DESCONECTAR");
+            failPendingRequests("desconectado");
+            if(processor != null){
+                processor.send(Command.DESCONECTAR, null);
             }
             if(socket != null && !socket.isClosed()){
                 socket.close();
             }
-            System.out.println("Desconectado do servidor com sucesso.");
+            if (listener == null) {
+                console.print("Desconectado do servidor com sucesso.");
+            }
         }catch(IOException e){
             System.err.println("Erro ao desconectar do servidor: " + e.getMessage());
         }
@@ -85,66 +288,364 @@ public class ChatClient {
 
 
     private void showHelp(){
-        System.out.println("\n=== COMANDOS DISPONÍVEIS ===");
-        System.out.println("/login <nome> [senha] - Fazer login (use senha de admin se for administrador)");
-        System.out.println("/salas - Listar salas disponíveis");
-        System.out.println("/entrar <sala> - Entrar em uma sala");
-        System.out.println("/sair - Sair da sala atual");
-        System.out.println("/msg <mensagem> - Enviar mensagem na sala");
-        System.out.println("/criar <sala> - Criar nova sala (apenas admin)");
-        System.out.println("/expulsar <usuario> - Expulsar usuário da sala (apenas admin)");
-        System.out.println("/encerrar <sala> - Encerrar uma sala (apenas admin)");
-        System.out.println("/sairServidor - Desconectar do servidor");
-        System.out.println("/ajuda - Mostrar esta ajuda");
-        System.out.println("=============================\n");
-    }
-
-
-    private class MessageReceiver implements Runnable{
+        StringBuilder help = new StringBuilder();
+        help.append("\n=== COMANDOS DISPONÍVEIS ===");
+        help.append('\n').append("/login <nome> [senha] - Fazer login (use senha de admin se for administrador)");
+        help.append('\n').append("/salas [página] - Listar salas disponíveis");
+        help.append('\n').append("/entrar <sala> - Entrar em uma sala (sem sair das outras)");
+        help.append('\n').append("/para <sala> - Escolher em qual das suas salas as mensagens são enviadas");
+        help.append('\n').append("/sair [sala] - Sair da sala (padrão: a sala atual)");
+        help.append('\n').append("/msg <mensagem> - Enviar mensagem na sala atual");
+        help.append('\n').append("/historico [seq] - Ver mensagens anteriores da sala");
+        help.append('\n').append("/buscar [-minutos] <termos> - Buscar mensagens da sala atual (pre* busca por prefixo)");
+        help.append('\n').append("/criar <sala> - Criar nova sala (apenas admin)");
+        help.append('\n').append("/expulsar <usuario> - Expulsar usuário da sala (apenas admin)");
+        help.append('\n').append("/encerrar <sala> - Encerrar uma sala (apenas admin)");
+        help.append('\n').append("/estatisticas - Ver as métricas do servidor (apenas admin)");
+        help.append('\n').append("/sairServidor - Desconectar do servidor");
+        help.append('\n').append("/ajuda - Mostrar esta ajuda");
+        help.append('\n').append("=============================\n");
+        console.print(help.toString());
+    }
+
+
+    private class MessageReceiver implements Runnable, FrameDecoder.Listener{
+        private final InputStream input;
+        private final FrameDecoder decoder = new FrameDecoder(this);
+        // Nomes dos ids usados pelo protocolo binário (enviados pelo servidor antes do primeiro uso)
+        private final Map<Integer, String> userNames = new HashMap<>();
+        private final Map<Integer, String> roomNames = new HashMap<>();
+
+        MessageReceiver(InputStream input){
+            this.input = input;
+        }
+
         @Override
         public void run(){
             try{
-                String message;
-                while(conected && ((message = input.readLine()) != null)){
-                    if (message.startsWith("ERRO:")) {
-                        System.err.println("-> " + message.substring(5));
-                    } else if (message.startsWith("SUCESSO:")) {
-                        System.out.println("-> " + message.substring(8));
-                    } else if (message.startsWith("INFO:")) {
-                        System.out.println("-> " + message.substring(5));
-                    } else if (message.startsWith("SALAS:")) {
-                        showRooms(message.substring(6));
-                    } else if (message.startsWith("USUARIOS:")) {
-                        showUsers(message.substring(9));
-                    } else if (message.startsWith("MSG:")) {
-                        // Mensagem de chat - formato: MSG:usuario:sala:conteudo
-                        String[] partes = message.split(":", 4);
-                        if (partes.length >= 4) {
-                            String usuario = partes[1];
-                            String sala = partes[2];
-                            String conteudo = partes[3];
-
-                            if (!usuario.equals(username)) {
-                                System.out.println("[" + sala + "] " + usuario + ": " + conteudo);
-                            }
-                        }
-                    } else {
-                        // Mensagem genérica do servidor
-                        System.out.println(message);
-                    }
+                byte[] buffer = new byte[8192];
+                int read;
+                while(conected && ((read = input.read(buffer)) != -1)){
+                    decoder.feed(buffer, 0, read);
+                }
+                if (conected && sessionToken != null) {
+                    throw new EOFException("conexão fechada pelo servidor");
                 }
             }catch(IOException e){
-                System.err.println("Conexão perdida com o servidor: " + e.getMessage());
+                if (conected && sessionToken != null) {
+                    if (listener == null) {
+                        console.error("Conexão perdida (" + e.getMessage() + "); tentando retomar a sessão...");
+                    }
+                    if (resumeSession()) {
+                        return; // um receptor novo segue na conexão nova
+                    }
+                }
+                if (listener != null) {
+                    if (conected) {
+                        listener.onError("Conexão perdida com o servidor: " + e.getMessage());
+                    }
+                } else {
+                    console.error("Conexão perdida com o servidor: " + e.getMessage());
+                }
                 conected = false;
+                failPendingRequests("conexão perdida");
             }
         }
+
+        // Resposta com id de requisição ("#id:TIPO:texto"): tratada como as outras e entregue a request()
+        @Override
+        public void onLine(String message){
+            int id = 0;
+            if (message.startsWith(Command.REQUEST_ID_PREFIX)) {
+                int colon = message.indexOf(':');
+                id = Command.parseRequestId(colon > 0 ? message.substring(0, colon) : message);
+                if (id != 0) {
+                    message = message.substring(colon + 1);
+                }
+            }
+            handleLine(message);
+            if (id != 0) {
+                completeRequest(id, message);
+            }
+        }
+
+        // Só formata e enfileira no console: a escrita fica com a thread do ConsoleRenderer
+        private void handleLine(String message){
+            if (listener != null) {
+                onLineHeadless(message);
+                return;
+            }
+            int colon = message.indexOf(':');
+            String type = colon > 0 ? message.substring(0, colon) : "";
+            String body = message.substring(colon + 1);
+            switch (type) {
+                case "MSG": {
+                    // Mensagem de chat - formato: MSG:usuario:sala:conteudo
+                    int endUser = body.indexOf(':');
+                    int endRoom = endUser < 0 ? -1 : body.indexOf(':', endUser + 1);
+                    if (endRoom >= 0) {
+                        showChatMessage(body.substring(0, endUser), body.substring(endUser + 1, endRoom), body.substring(endRoom + 1));
+                    }
+                    break;
+                }
+                case "ERRO":
+                    if (processor.isLoginPending()) {
+                        processor.loginResolved(false);
+                    }
+                    console.error("-> " + body);
+                    break;
+                case "SUCESSO":
+                    if (isLoginReply(message)) {
+                        loginAccepted();
+                    }
+                    console.print("-> " + body);
+                    break;
+                case "INFO":
+                    console.print("-> " + body);
+                    break;
+                case "SALAS":
+                    showRooms(body);
+                    break;
+                case "USUARIOS":
+                    showUsers(body);
+                    break;
+                case "HISTORICO":
+                    showHistoryHeader(body);
+                    break;
+                case "ESTATISTICAS":
+                    console.print("[stats] " + body);
+                    break;
+                case "SESSAO":
+                    sessionToken = body;
+                    break;
+                case "BUSCA":
+                    showSearchHeader(body);
+                    break;
+                case "ACHADO":
+                    showSearchHit(body);
+                    break;
+                case "PING":
+                    processor.pong();
+                    break;
+                default:
+                    // Mensagem genérica do servidor
+                    console.print(message);
+            }
+        }
+
+        // Sem console: só o que o listener precisa e a troca de protocolo do login
+        private void onLineHeadless(String message){
+            if (message.startsWith("MSG:")) {
+                String[] partes = message.split(":", 4);
+                if (partes.length >= 4) {
+                    listener.onChatMessage(partes[1], partes[2], partes[3]);
+                }
+            } else if (message.startsWith("ERRO:")) {
+                if (processor.isLoginPending()) {
+                    processor.loginResolved(false);
+                }
+                listener.onError(message.substring(5));
+            } else if (isLoginReply(message)) {
+                loginAccepted();
+            } else if (message.startsWith("SESSAO:")) {
+                sessionToken = message.substring(7);
+            } else if (message.startsWith("PING:")) {
+                processor.pong();
+            }
+        }
+
+        // Depois destas respostas vale o protocolo pedido no login ou no RETOMAR
+        private boolean isLoginReply(String message){
+            return message.startsWith("SUCESSO:Login realizado") || message.startsWith("SUCESSO:Sessão retomada");
+        }
+
+        // Tudo que vier depois desta linha já está no protocolo pedido no login (binário e/ou comprimido)
+        private void loginAccepted(){
+            if (processor.isCompressionRequested()) {
+                decoder.setCompressed();
+            }
+            if (processor.isLoginPending()) {
+                decoder.setBinary(true);
+                processor.loginResolved(true);
+            }
+        }
+
+        @Override
+        public void onFrame(int opcode, ByteBuffer payload){
+            int id = 0;
+            Reply reply = Reply.fromOpcode(opcode & ~BinaryCodec.REQUEST_ID_FLAG);
+            if (reply == null) {
+                reportError("Frame desconhecido do servidor: " + opcode);
+                return;
+            }
+            try {
+                if ((opcode & BinaryCodec.REQUEST_ID_FLAG) != 0) {
+                    id = BinaryCodec.readVarint(payload);
+                }
+                ByteBuffer body = payload.duplicate();
+                handleReply(reply, payload);
+                if (id != 0) {
+                    completeRequest(id, replyLine(reply, body));
+                }
+            } catch (RuntimeException e) {
+                reportError("Frame inválido do servidor: " + reply);
+            }
+        }
+
+        // "TIPO:texto", como a mesma resposta no protocolo de texto
+        private String replyLine(Reply reply, ByteBuffer payload){
+            if (reply == Reply.ECO) {
+                BinaryCodec.readVarint(payload); // sala
+            }
+            return reply.text() + ":" + BinaryCodec.readString(payload);
+        }
+
+        private void reportError(String message){
+            if (listener == null) {
+                console.error(message);
+            } else {
+                System.err.println(message);
+            }
+        }
+
+        private void handleReply(Reply reply, ByteBuffer payload){
+            switch (reply) {
+                case ERRO:
+                    if (listener != null) {
+                        listener.onError(BinaryCodec.readString(payload));
+                    } else {
+                        console.error("-> " + BinaryCodec.readString(payload));
+                    }
+                    break;
+                case SUCESSO:
+                case INFO:
+                    if (listener == null) {
+                        console.print("-> " + BinaryCodec.readString(payload));
+                    }
+                    break;
+                case SALAS:
+                    if (listener == null) {
+                        showRooms(BinaryCodec.readString(payload));
+                    }
+                    break;
+                case USUARIOS:
+                    if (listener == null) {
+                        showUsers(BinaryCodec.readString(payload));
+                    }
+                    break;
+                case HISTORICO:
+                    if (listener == null) {
+                        showHistoryHeader(BinaryCodec.readString(payload));
+                    }
+                    break;
+                case SESSAO:
+                    sessionToken = BinaryCodec.readString(payload);
+                    break;
+                case PING:
+                    processor.pong();
+                    break;
+                case BUSCA:
+                    if (listener == null) {
+                        showSearchHeader(BinaryCodec.readString(payload));
+                    }
+                    break;
+                case ACHADO:
+                    if (listener == null) {
+                        showSearchHit(BinaryCodec.readString(payload));
+                    }
+                    break;
+                case ESTATISTICAS:
+                    if (listener == null) {
+                        console.print("[stats] " + BinaryCodec.readString(payload));
+                    }
+                    break;
+                case DEFINE_USUARIO:
+                    userNames.put(BinaryCodec.readVarint(payload), BinaryCodec.readString(payload));
+                    break;
+                case DEFINE_SALA:
+                    roomNames.put(BinaryCodec.readVarint(payload), BinaryCodec.readString(payload));
+                    break;
+                case MSG: {
+                    String usuario = userNames.getOrDefault(BinaryCodec.readVarint(payload), "?");
+                    String sala = roomNames.getOrDefault(BinaryCodec.readVarint(payload), "?");
+                    if (listener != null) {
+                        listener.onChatMessage(usuario, sala, BinaryCodec.readString(payload));
+                    } else {
+                        showChatMessage(usuario, sala, BinaryCodec.readString(payload));
+                    }
+                    break;
+                }
+                case ECO: {
+                    if (listener != null) {
+                        break;
+                    }
+                    String sala = roomNames.getOrDefault(BinaryCodec.readVarint(payload), "?");
+                    console.print("[" + sala + "] Você: " + BinaryCodec.readString(payload));
+                    break;
+                }
+            }
+        }
+    }
+
+
+    // Formato: primeiraSeq:quantidade
+    private void showHistoryHeader(String header){
+        String[] info = header.split(":");
+        if (info.length < 2) {
+            return;
+        }
+        try {
+            long firstSeq = Long.parseLong(info[0]);
+            int count = Integer.parseInt(info[1]);
+            if (count == 0) {
+                console.print("-> Não há mais mensagens no histórico.");
+                return;
+            }
+            processor.historyReceived(firstSeq);
+            console.print("--- Histórico (" + count + " mensagens, a partir de #" + firstSeq + "; /historico para ver mais) ---");
+        } catch (NumberFormatException e) {
+            console.print(header);
+        }
     }
 
 
+    private void showSearchHeader(String count){
+        if (count.equals("0")) {
+            console.print("-> Nenhuma mensagem encontrada.");
+        } else {
+            console.print("--- Busca (" + count + " mensagens, as que têm mais termos primeiro) ---");
+        }
+    }
+
+
+    // Formato: horarioMillis:usuario:texto
+    private void showSearchHit(String hit){
+        String[] partes = hit.split(":", 3);
+        if (partes.length < 3) {
+            console.print(hit);
+            return;
+        }
+        try {
+            String when = SEARCH_TIME.format(Instant.ofEpochMilli(Long.parseLong(partes[0])));
+            console.print("[" + when + "] " + partes[1] + ": " + partes[2]);
+        } catch (NumberFormatException e) {
+            console.print(hit);
+        }
+    }
+
+
+    private void showChatMessage(String usuario, String sala, String conteudo){
+        if (!usuario.equals(username)) {
+            console.chat("[" + sala + "] " + usuario + ": " + conteudo);
+        }
+    }
+
+
+    // Listas montadas num texto só: chegam ao console inteiras, sem mensagens de chat no meio
     private void showUsers(String usersString){
-        System.out.println("\n=== USUÁRIOS NA SALA ===");
+        StringBuilder text = new StringBuilder("\n=== USUÁRIOS NA SALA ===\n");
         if(usersString.trim().isEmpty()){
-            System.out.println("Sala Vazia");
+            text.append("Sala Vazia\n");
         }else{
             String[] users = usersString.split(",");
             for(String user : users){
@@ -153,54 +654,90 @@ public class ChatClient {
                     String name = info[0];
                     String type = info[1];
                     if(type.equalsIgnoreCase("admin")) {
-                        System.out.println("Usuario: " + name + "(Admin)");
+                        text.append("Usuario: ").append(name).append("(Admin)\n");
                     }else{
-                        System.out.println("Usuario: " + name);
+                        text.append("Usuario: ").append(name).append('\n');
                     }
                 }
             }
         }
-        System.out.println("=========================\n");
+        text.append("=========================\n");
+        console.print(text.toString());
     }
 
 
     private void showRooms(String roomsString){
-        System.out.println("\n=== SALAS DISPONÍVEIS ===");
+        StringBuilder text = new StringBuilder("\n=== SALAS DISPONÍVEIS ===\n");
         if (roomsString.trim().isEmpty()) {
-            System.out.println("Nenhuma sala disponível");
+            text.append("Nenhuma sala disponível\n");
         } else {
             String[] salas = roomsString.split(",");
             for (String sala : salas) {
                 String[] info = sala.split("\\|");
                 if (info.length >= 2) {
-                    System.out.println(info[0] + " (" + info[1] + " usuários)");
+                    text.append(info[0]).append(" (").append(info[1]).append(" usuários)\n");
                 } else {
-                    System.out.println(sala);
+                    text.append(sala).append('\n');
                 }
             }
         }
-        System.out.println("==========================\n");
+        text.append("==========================\n");
+        console.print(text.toString());
     }
 
 
     public static void main(String[] args) {
         String host = "localhost";
         int port = 12345;
+        boolean binary = false;
+        boolean compress = false;
+        boolean useTls = false;
+        String truststore = null;
+        String truststorePassword = "";
 
-        // Permite passar host e porta como argumentos
-        if (args.length >= 1) {
-            host = args[0];
+        // Permite passar host e porta como argumentos; --binary pede o protocolo binário,
+        // --deflate, que o servidor comprima o que envia, e --tls conecta com TLS (--truststore=arquivo
+        // e --truststore-password=senha para confiar num certificado próprio)
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--binary")) {
+                binary = true;
+            } else if (arg.equals("--deflate")) {
+                compress = true;
+            } else if (arg.equals("--tls")) {
+                useTls = true;
+            } else if (arg.startsWith("--truststore=")) {
+                useTls = true;
+                truststore = arg.substring("--truststore=".length());
+            } else if (arg.startsWith("--truststore-password=")) {
+                truststorePassword = arg.substring("--truststore-password=".length());
+            } else {
+                positional.add(arg);
+            }
         }
-        if (args.length >= 2) {
+        if (positional.size() >= 1) {
+            host = positional.get(0);
+        }
+        if (positional.size() >= 2) {
             try {
-                port = Integer.parseInt(args[1]);
+                port = Integer.parseInt(positional.get(1));
             } catch (NumberFormatException e) {
                 System.err.println("Porta inválida, usando porta padrão: " + port);
             }
         }
 
+        SSLContext tls = null;
+        if (useTls) {
+            try {
+                tls = Tls.clientContext(truststore, truststorePassword);
+            } catch (IOException | GeneralSecurityException e) {
+                System.err.println("Erro ao carregar o truststore: " + e.getMessage());
+                return;
+            }
+        }
+
         System.out.println("Iniciando cliente do chat...");
-        ChatClient client = new ChatClient(host, port);
+        ChatClient client = new ChatClient(host, port, binary, compress, tls, null);
         client.start();
     }
 }
@@ -1,58 +1,259 @@
 package client;
+import protocol.BinaryCodec;
+import protocol.Command;
+import protocol.Compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CommandProcessor
 {
     private PrintWriter out;
+    private OutputStream rawOut;       // usado no protocolo binário
+    private boolean requestBinary;     // pedir o protocolo binário no login
+    private boolean requestCompression; // pedir que o servidor comprima o que envia
+    private volatile boolean binary;
+    private volatile CountDownLatch pendingLogin;
+    private volatile long oldestHistorySeq;  // primeira mensagem do último trecho de histórico recebido
+    private final AtomicInteger requestIds = new AtomicInteger();
 
     public CommandProcessor(PrintWriter out)
     {
         this.out = out;
     }
 
+    public CommandProcessor(PrintWriter out, OutputStream rawOut, boolean requestBinary)
+    {
+        this.out = out;
+        this.rawOut = rawOut;
+        this.requestBinary = requestBinary && rawOut != null;
+    }
+
+    public CommandProcessor(PrintWriter out, OutputStream rawOut, boolean requestBinary, boolean requestCompression)
+    {
+        this(out, rawOut, requestBinary);
+        this.requestCompression = requestCompression;
+    }
+
+    // Ids de requisição da conexão: 1, 2, 3, ... (0 é "sem id")
+    public int nextRequestId()
+    {
+        int id = requestIds.incrementAndGet();
+        if (id <= 0) {
+            requestIds.set(1);
+            id = 1;
+        }
+        return id;
+    }
+
+    public boolean isCompressionRequested()
+    {
+        return requestCompression;
+    }
+
     public void processCommands(String command)
     {
+        processCommands(command, 0);
+    }
+
+    // requestId != 0: o comando vai com esse id e as respostas a ele voltam com o mesmo id.
+    // false se nada foi enviado (comando inválido)
+    public boolean processCommands(String command, int requestId)
+    {
+        awaitLogin();
+
         if (command.startsWith("/login ")) {
-            processLogin(command);
-        } else if (command.equals("/salas")) {
-            out.println("LISTAR_SALAS");
+            return processLogin(command, requestId);
+        } else if (command.equals("/salas") || command.startsWith("/salas ")) {
+            String pagina = command.substring(6).trim();
+            send(Command.LISTAR_SALAS, pagina.isEmpty() ? null : pagina, requestId);
         } else if (command.startsWith("/entrar ")) {
             String sala = command.substring(8).trim();
-            out.println("ENTRAR_SALA:" + sala);
-        } else if (command.equals("/sair")) {
-            out.println("SAIR_SALA");
+            send(Command.ENTRAR_SALA, sala, requestId);
+        } else if (command.equals("/sair") || command.startsWith("/sair ")) {
+            String sala = command.substring(5).trim();
+            send(Command.SAIR_SALA, sala.isEmpty() ? null : sala, requestId);
+        } else if (command.startsWith("/para ")) {
+            // As próximas mensagens (e /historico, /expulsar) vão para esta sala
+            String sala = command.substring(6).trim();
+            oldestHistorySeq = 0;
+            send(Command.USAR_SALA, sala, requestId);
         } else if (command.startsWith("/msg ")) {
             String mensagem = command.substring(5).trim();
-            out.println("MENSAGEM:" + mensagem);
+            send(Command.MENSAGEM, mensagem, requestId);
         } else if (command.startsWith("/criar ")) {
             String sala = command.substring(7).trim();
-            out.println("CRIAR_SALA:" + sala);
+            send(Command.CRIAR_SALA, sala, requestId);
         } else if (command.startsWith("/expulsar ")) {
             String usuario = command.substring(10).trim();
-            out.println("EXPULSAR:" + usuario);
+            send(Command.EXPULSAR, usuario, requestId);
         } else if (command.startsWith("/encerrar ")) {
             String sala = command.substring(10).trim();
-            out.println("ENCERRAR_SALA:" + sala);
+            send(Command.ENCERRAR_SALA, sala, requestId);
+        } else if (command.equals("/historico") || command.startsWith("/historico ")) {
+            String seq = command.length() > 10 ? command.substring(11).trim() : "";
+            if (seq.isEmpty() && oldestHistorySeq > 0) {
+                seq = String.valueOf(oldestHistorySeq);
+            }
+            send(Command.HISTORICO, seq.isEmpty() ? null : seq, requestId);
+        } else if (command.startsWith("/buscar ")) {
+            return processSearch(command.substring(8).trim(), requestId);
+        } else if (command.equals("/estatisticas")) {
+            send(Command.ESTATISTICAS, null, requestId);
         } else if (command.startsWith("/")) {
             System.out.println("Comando inválido. Digite /ajuda para ver os comandos disponíveis.");
+            return false;
         } else {
             // Se não começar com /, trata como mensagem
-            out.println("MENSAGEM:" + command);
+            send(Command.MENSAGEM, command, requestId);
         }
+        return true;
     }
 
 
-    private void processLogin(String command)
+    // /buscar [-minutos] termos: "-60" limita às mensagens da última hora
+    private boolean processSearch(String args, int requestId)
+    {
+        long from = 0;
+        if (args.startsWith("-")) {
+            String[] parts = args.split("\\s+", 2);
+            try {
+                from = System.currentTimeMillis() - Long.parseLong(parts[0].substring(1)) * 60_000;
+                args = parts.length > 1 ? parts[1] : "";
+            } catch (NumberFormatException e) {
+                // não era um número de minutos: fica como termo da busca
+            }
+        }
+        if (args.isEmpty()) {
+            System.out.println("Uso: /buscar [-minutos] <termos>");
+            return false;
+        }
+        send(Command.BUSCAR, from + ":0:" + args, requestId);
+        return true;
+    }
+
+    private boolean processLogin(String command, int requestId)
     {
         String[] commandParts = command.split(" ");
         if(commandParts.length < 2) {
             System.out.println("Uso: /login <nome>");
+            return false;
         }
         String username = commandParts[1];
         String key = "";
         if(commandParts.length >= 3) {
             key = commandParts[2];
         }
-        out.println("login:" + username + ":" + key);
+        boolean askBinary = requestBinary && !binary;
+        if (askBinary) {
+            // Os próximos comandos esperam a resposta do login para saber qual protocolo usar
+            pendingLogin = new CountDownLatch(1);
+        }
+        String id = requestId != 0 ? Command.REQUEST_ID_PREFIX + requestId + ":" : "";
+        out.println(id + "login:" + username + ":" + key + connectionFlags(askBinary));
+        return true;
+    }
+
+    // ":BIN", ":DEFLATE", ":BIN,DEFLATE" ou nada
+    private String connectionFlags(boolean askBinary)
+    {
+        String flags = askBinary ? BinaryCodec.LOGIN_FLAG : "";
+        if (requestCompression) {
+            flags = flags.isEmpty() ? Compression.LOGIN_FLAG : flags + "," + Compression.LOGIN_FLAG;
+        }
+        return flags.isEmpty() ? "" : ":" + flags;
+    }
+
+    // Conexão nova depois de uma queda: volta ao protocolo de texto até a resposta do RETOMAR
+    public synchronized void reconnected(PrintWriter out, OutputStream rawOut)
+    {
+        this.out = out;
+        this.rawOut = rawOut;
+        this.binary = false;
+    }
+
+    // Retoma a sessão em vez de fazer login; o protocolo é negociado de novo, como no login
+    public synchronized void resume(String token)
+    {
+        if (requestBinary) {
+            pendingLogin = new CountDownLatch(1);
+        }
+        out.println(Command.RETOMAR.text() + ":" + token + connectionFlags(requestBinary));
+    }
+
+    public void send(Command command, String data)
+    {
+        send(command, data, 0);
+    }
+
+    // Envia no protocolo em uso: "COMANDO:dados" ou [tamanho][opcode][dados]; com id de requisição,
+    // "#id:COMANDO:dados" ou o opcode com REQUEST_ID_FLAG e o id antes dos dados
+    public synchronized void send(Command command, String data, int requestId)
+    {
+        if (!binary) {
+            String id = requestId != 0 ? Command.REQUEST_ID_PREFIX + requestId + ":" : "";
+            out.println(id + (data == null ? command.text() : command.text() + ":" + data));
+            return;
+        }
+        try {
+            rawOut.write(BinaryCodec.frame(command.opcode(), requestId, data));
+            rawOut.flush();
+        } catch (IOException e) {
+            System.err.println("Erro ao enviar comando: " + e.getMessage());
+        }
+    }
+
+    // Resposta ao PING do servidor. Com o login esperando a troca de protocolo não há resposta: o login
+    // chegou ao servidor depois do PING e já conta como sinal de vida
+    public void pong()
+    {
+        if (!isLoginPending()) {
+            send(Command.PONG, null);
+        }
+    }
+
+    // Chamado pelo receptor: o próximo /historico continua a partir daqui
+    public void historyReceived(long firstSeq)
+    {
+        if (firstSeq > 0) {
+            oldestHistorySeq = firstSeq;
+        }
+    }
+
+    public boolean isLoginPending()
+    {
+        return pendingLogin != null && pendingLogin.getCount() > 0;
+    }
+
+    // Chamado pelo receptor quando chega a resposta do login
+    public void loginResolved(boolean switchedToBinary)
+    {
+        if (switchedToBinary) {
+            binary = true;
+        }
+        CountDownLatch latch = pendingLogin;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private void awaitLogin()
+    {
+        CountDownLatch latch = pendingLogin;
+        if (latch == null) {
+            return;
+        }
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                System.err.println("Sem resposta do login; continuando no protocolo de texto.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pendingLogin = null;
     }
 }
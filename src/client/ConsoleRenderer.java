@@ -0,0 +1,175 @@
+package client;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+
+// Saída do console do cliente interativo. O receptor só enfileira as linhas já formatadas e volta a ler
+// o socket; esta thread junta o que chegou e faz uma escrita por tick. Sem isso, numa sala movimentada o
+// println (sincronizado e com flush por linha) atrasa o receptor, o buffer do socket enche e o servidor
+// passa a tratar o cliente como lento.
+public class ConsoleRenderer implements Runnable {
+    private static final long TICK_MS = 50;
+    private static final int QUEUE_CAPACITY = 4096;      // linhas de chat esperando o console
+    private static final int MAX_CHAT_LINES_PER_TICK = 200; // acima disso, só as mais recentes aparecem
+
+    private static final class Line {
+        final String text;
+        final boolean error; // vai para o stderr
+        final boolean chat;  // pode ser pulada quando o console fica para trás
+
+        Line(String text, boolean error, boolean chat) {
+            this.text = text;
+            this.error = error;
+            this.chat = chat;
+        }
+    }
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Object lock = new Object();
+    private ArrayDeque<Line> pending = new ArrayDeque<>();
+    private ArrayDeque<Line> spare = new ArrayDeque<>();
+    private int pendingChat;
+    private long skipped; // linhas de chat descartadas desde o último aviso
+    private boolean closed;
+    private Thread thread;
+
+    public ConsoleRenderer() {
+        this(System.out, System.err);
+    }
+
+    public ConsoleRenderer(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public void start() {
+        thread = new Thread(this, "console");
+        thread.start();
+    }
+
+    // Mensagens de chat: com a fila cheia são descartadas e contadas, o receptor nunca espera
+    public void chat(String line) {
+        enqueue(new Line(line, false, true));
+    }
+
+    // Respostas, avisos e listas: nunca são descartados (chegam no ritmo dos comandos do usuário)
+    public void print(String line) {
+        enqueue(new Line(line, false, false));
+    }
+
+    public void error(String line) {
+        enqueue(new Line(line, true, false));
+    }
+
+    private void enqueue(Line line) {
+        synchronized (lock) {
+            if (closed) {
+                (line.error ? err : out).println(line.text);
+                return;
+            }
+            if (line.chat) {
+                if (pendingChat >= QUEUE_CAPACITY) {
+                    skipped++;
+                    return;
+                }
+                pendingChat++;
+            }
+            boolean wasEmpty = pending.isEmpty();
+            pending.addLast(line);
+            if (wasEmpty) {
+                lock.notify();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        StringBuilder batch = new StringBuilder(8192);
+        boolean running = true;
+        while (running) {
+            ArrayDeque<Line> lines;
+            int chatLines;
+            long skippedNow;
+            synchronized (lock) {
+                while (pending.isEmpty() && skipped == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                running = !closed;
+                // Troca as filas: o receptor segue enfileirando na vazia enquanto esta é escrita
+                lines = pending;
+                pending = spare;
+                spare = lines;
+                chatLines = pendingChat;
+                pendingChat = 0;
+                skippedNow = skipped;
+                skipped = 0;
+            }
+            render(lines, chatLines, skippedNow, batch);
+            lines.clear();
+            if (running) {
+                try {
+                    Thread.sleep(TICK_MS); // o que chegar nesse intervalo vai na próxima escrita
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+        }
+        synchronized (lock) {
+            closed = true;
+            render(pending, pendingChat, skipped, batch);
+            pending.clear();
+        }
+    }
+
+    private void render(ArrayDeque<Line> lines, int chatLines, long skippedNow, StringBuilder batch) {
+        // Console muito atrás: as mensagens de chat mais antigas viram um resumo
+        int toSkip = Math.max(0, chatLines - MAX_CHAT_LINES_PER_TICK);
+        skippedNow += toSkip;
+        if (skippedNow > 0) {
+            batch.append("-> ").append(skippedNow).append(" mensagens puladas (o console não acompanhou a sala)\n");
+        }
+        for (Line line : lines) {
+            if (line.chat && toSkip > 0) {
+                toSkip--;
+                continue;
+            }
+            if (line.error) {
+                // Mantém a ordem entre stdout e stderr: escreve o que já juntou antes do erro
+                flush(batch);
+                err.println(line.text);
+            } else {
+                batch.append(line.text).append('\n');
+            }
+        }
+        flush(batch);
+    }
+
+    private void flush(StringBuilder batch) {
+        if (batch.length() > 0) {
+            out.print(batch);
+            out.flush();
+            batch.setLength(0);
+        }
+    }
+
+    // Escreve o que ainda está na fila e encerra; depois disso as linhas vão direto para o console
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Protocolo binário: [varint tamanho][opcode][payload], onde tamanho conta opcode + payload.
+// Inteiros (ids) são varints; textos são [varint tamanho em bytes][UTF-8].
+public final class BinaryCodec {
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    // Sufixo do login que pede o protocolo binário: "login:nome:senha:BIN"
+    public static final String LOGIN_FLAG = "BIN";
+
+    // Bit alto do opcode (comandos e respostas): o payload começa com o varint do id de requisição
+    public static final int REQUEST_ID_FLAG = 0x80;
+
+    private BinaryCodec() {
+    }
+
+    public static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    public static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint inválido");
+    }
+
+    public static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Monta um frame completo a partir do opcode e do payload já escrito
+    public static byte[] frame(int opcode, ByteArrayOutputStream payload) {
+        int bodyLength = 1 + payload.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(varintSize(bodyLength) + bodyLength);
+        writeVarint(out, bodyLength);
+        out.write(opcode);
+        out.write(payload.toByteArray(), 0, payload.size());
+        return out.toByteArray();
+    }
+
+    public static byte[] frame(int opcode, String text) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        if (text != null) {
+            writeString(payload, text);
+        }
+        return frame(opcode, payload);
+    }
+
+    // Com id de requisição (0 = sem id): REQUEST_ID_FLAG no opcode e o id antes do texto
+    public static byte[] frame(int opcode, int requestId, String text) {
+        if (requestId == 0) {
+            return frame(opcode, text);
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarint(payload, requestId);
+        if (text != null) {
+            writeString(payload, text);
+        }
+        return frame(opcode | REQUEST_ID_FLAG, payload);
+    }
+}
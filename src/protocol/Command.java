@@ -0,0 +1,75 @@
+package protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Comandos enviados pelo cliente: nome no protocolo de texto e opcode no protocolo binário
+public enum Command {
+    LOGIN("login", 0x01),
+    LISTAR_SALAS("LISTAR_SALAS", 0x02),
+    ENTRAR_SALA("ENTRAR_SALA", 0x03),
+    SAIR_SALA("SAIR_SALA", 0x04),
+    MENSAGEM("MENSAGEM", 0x05),
+    CRIAR_SALA("CRIAR_SALA", 0x06),
+    EXPULSAR("EXPULSAR", 0x07),
+    ENCERRAR_SALA("ENCERRAR_SALA", 0x08),
+    DESCONECTAR("DESCONECTAR", 0x09),
+    HISTORICO("HISTORICO", 0x0A),
+    ESTATISTICAS("ESTATISTICAS", 0x0B), // apenas admin
+    USAR_SALA("USAR_SALA", 0x0C),       // escolhe, entre as salas inscritas, a que recebe MENSAGEM
+    RETOMAR("RETOMAR", 0x0D),           // "token[:flags]": retoma uma sessão em vez de fazer login
+    PONG("PONG", 0x0E),                 // resposta ao PING do servidor; não conta como atividade
+    BUSCAR("BUSCAR", 0x0F);             // "desde:ate:termos" (horários em ms, 0 = sem limite) na sala atual
+
+    // Id de requisição opcional no protocolo de texto: "#17:COMANDO:dados". As respostas a esse comando
+    // (SUCESSO, ERRO, SALAS, USUARIOS, ...) voltam como "#17:TIPO:texto"; no binário, ver REQUEST_ID_FLAG
+    public static final String REQUEST_ID_PREFIX = "#";
+
+    private static final Map<String, Command> BY_TEXT = new HashMap<>();
+    private static final Command[] BY_OPCODE = new Command[256];
+
+    static {
+        for (Command command : values()) {
+            BY_TEXT.put(command.text, command);
+            BY_OPCODE[command.opcode] = command;
+        }
+    }
+
+    private final String text;
+    private final int opcode;
+
+    Command(String text, int opcode) {
+        this.text = text;
+        this.opcode = opcode;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public int opcode() {
+        return opcode;
+    }
+
+    // Retorna null para comandos desconhecidos
+    public static Command fromText(String text) {
+        return BY_TEXT.get(text);
+    }
+
+    // Id de "#17" (sem o ':'); 0 se não for um número positivo
+    public static int parseRequestId(String text) {
+        if (!text.startsWith(REQUEST_ID_PREFIX) || text.length() < 2 || text.length() > 11) {
+            return 0;
+        }
+        try {
+            int id = Integer.parseInt(text.substring(1));
+            return id > 0 ? id : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static Command fromOpcode(int opcode) {
+        return opcode >= 0 && opcode < BY_OPCODE.length ? BY_OPCODE[opcode] : null;
+    }
+}
@@ -0,0 +1,41 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Compressão opcional do que o servidor envia, pedida no login ("login:nome:senha:DEFLATE" ou
+// "login:nome:senha:BIN,DEFLATE"). Depois da resposta do login, os bytes do servidor chegam em blocos
+// [varint tamanho][deflate sem cabeçalho], cada um independente e comprimido com o dicionário abaixo.
+public final class Compression {
+    public static final String LOGIN_FLAG = "DEFLATE";
+    public static final int MAX_BLOCK_LENGTH = 1024 * 1024;
+
+    // Dicionário compartilhado pelos dois lados: o deflate prefere as referências mais próximas do
+    // fim, por isso os trechos mais frequentes (MSG:, avisos de entrada/saída) ficam por último
+    public static final byte[] DICTIONARY = buildDictionary();
+
+    private Compression() {
+    }
+
+    private static byte[] buildDictionary() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String[] phrases = {
+                "Login realizado como administrador: ", "Login realizado: ", "Entrou na sala: ",
+                "Saiu da sala: ", " foi expulso da sala pelo admin ", "Tente novamente em ",
+                "|admin,", "|user,",
+        };
+        for (String phrase : phrases) {
+            out.writeBytes(phrase.getBytes(StandardCharsets.UTF_8));
+        }
+        for (Reply reply : Reply.values()) {
+            if (reply.text() != null) {
+                out.writeBytes((reply.text() + ":").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String[] frequent = {" entrou na sala.\nINFO:", " saiu da sala.\n", "] Você: ", "\nMSG:"};
+        for (String phrase : frequent) {
+            out.writeBytes(phrase.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,252 @@
+package protocol;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Decodificador incremental: recebe bytes em pedaços quaisquer e entrega linhas (modo texto)
+// ou frames com tamanho prefixado (modo binário). O modo pode mudar no meio de um pedaço,
+// por exemplo logo depois da linha de login. Com a compressão ativada (só no cliente), os bytes
+// passam antes por uma etapa que descomprime os blocos deflate (ver Compression).
+public class FrameDecoder {
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    public interface Listener {
+        void onLine(String line);
+
+        // O payload só é válido durante a chamada
+        void onFrame(int opcode, ByteBuffer payload);
+    }
+
+    private final Listener listener;
+    private byte[] buffer = new byte[1024];
+    private int start; // primeiro byte ainda não consumido
+    private int end;   // fim dos dados válidos
+    private volatile boolean binary;
+    // Etapa de descompressão: blocos comprimidos ainda incompletos e o Inflater reutilizado entre eles
+    private Inflater inflater;
+    private byte[] compressed;
+    private int compressedEnd;
+    private byte[] inflated;
+    private boolean compressionPending; // ativada durante um callback: o resto do buffer já vem comprimido
+    private boolean paused; // o que chegar fica no buffer até resume()
+
+    public FrameDecoder(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Os bytes recebidos depois do item que está sendo entregue agora chegam comprimidos.
+    // Deve ser chamado pelo listener (na mesma thread que chama feed).
+    public void setCompressed() {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            compressed = new byte[1024];
+            inflated = new byte[8192];
+            compressionPending = true;
+        }
+    }
+
+    public boolean isCompressed() {
+        return inflater != null;
+    }
+
+    // Chamado pelo listener durante um callback: o decoder para depois do item atual e guarda o resto,
+    // por exemplo enquanto um comando que troca o protocolo ainda não terminou
+    public void pause() {
+        paused = true;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    // Na mesma thread que chama feed: continua a partir do que ficou guardado
+    public void resume() throws IOException {
+        paused = false;
+        decode();
+    }
+
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        if (inflater != null) {
+            appendCompressed(data, offset, length);
+            inflateBlocks();
+        } else {
+            append(data, offset, length);
+        }
+        decode();
+    }
+
+    public void feed(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        ensureCapacity(length);
+        data.get(buffer, end, length);
+        end += length;
+        decode();
+    }
+
+    private void appendCompressed(byte[] data, int offset, int length) {
+        if (compressedEnd + length > compressed.length) {
+            byte[] bigger = new byte[Math.max(compressed.length * 2, compressedEnd + length)];
+            System.arraycopy(compressed, 0, bigger, 0, compressedEnd);
+            compressed = bigger;
+        }
+        System.arraycopy(data, offset, compressed, compressedEnd, length);
+        compressedEnd += length;
+    }
+
+    // Descomprime todos os blocos completos para o buffer de linhas/frames
+    private void inflateBlocks() throws IOException {
+        int pos = 0;
+        while (pos < compressedEnd) {
+            int length = 0;
+            int p = pos;
+            boolean complete = false;
+            for (int shift = 0; p < compressedEnd; shift += 7) {
+                if (shift > 28) {
+                    throw new ProtocolException("Tamanho de bloco inválido");
+                }
+                byte b = compressed[p++];
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (!complete) {
+                break; // varint incompleto
+            }
+            if (length < 1 || length > Compression.MAX_BLOCK_LENGTH) {
+                throw new ProtocolException("Tamanho de bloco inválido: " + length);
+            }
+            if (compressedEnd - p < length) {
+                break; // bloco incompleto
+            }
+            inflateBlock(p, length);
+            pos = p + length;
+        }
+        System.arraycopy(compressed, pos, compressed, 0, compressedEnd - pos);
+        compressedEnd -= pos;
+    }
+
+    private void inflateBlock(int offset, int length) throws IOException {
+        inflater.reset();
+        // Deflate sem cabeçalho não avisa que usa dicionário: os dois lados sempre usam o mesmo
+        inflater.setDictionary(Compression.DICTIONARY);
+        inflater.setInput(compressed, offset, length);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(inflated);
+                if (n > 0) {
+                    append(inflated, 0, n);
+                } else if (inflater.needsInput()) {
+                    throw new ProtocolException("Bloco comprimido truncado");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Bloco comprimido inválido: " + e.getMessage());
+        }
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, end, length);
+        end += length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (end + extra <= buffer.length) {
+            return;
+        }
+        int pending = end - start;
+        if (pending + extra <= buffer.length) {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        } else {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, pending + extra)];
+            System.arraycopy(buffer, start, bigger, 0, pending);
+            buffer = bigger;
+        }
+        start = 0;
+        end = pending;
+    }
+
+    private void decode() throws IOException {
+        while (start < end && !paused) {
+            boolean decoded = binary ? decodeFrame() : decodeLine();
+            if (!decoded) {
+                break;
+            }
+            if (compressionPending) {
+                // O que sobrou deste pedaço já é comprimido: volta pela etapa de descompressão
+                compressionPending = false;
+                int rest = end - start;
+                end = start;
+                appendCompressed(buffer, start, rest);
+                inflateBlocks();
+            }
+        }
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    private boolean decodeLine() throws IOException {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\n') {
+                int length = i - start;
+                if (length > 0 && buffer[i - 1] == '\r') {
+                    length--;
+                }
+                String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+                start = i + 1;
+                listener.onLine(line);
+                return true;
+            }
+        }
+        if (end - start > MAX_LINE_LENGTH) {
+            throw new ProtocolException("Linha muito longa");
+        }
+        return false;
+    }
+
+    private boolean decodeFrame() throws IOException {
+        int length = 0;
+        int pos = start;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= end) {
+                return false; // varint incompleto
+            }
+            if (shift > 28) {
+                throw new ProtocolException("Tamanho de frame inválido");
+            }
+            byte b = buffer[pos++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 1 || length > BinaryCodec.MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Tamanho de frame inválido: " + length);
+        }
+        if (end - pos < length) {
+            return false; // frame incompleto
+        }
+
+        int opcode = buffer[pos] & 0xFF;
+        ByteBuffer payload = ByteBuffer.wrap(buffer, pos + 1, length - 1).slice();
+        start = pos + length;
+        listener.onFrame(opcode, payload);
+        return true;
+    }
+}
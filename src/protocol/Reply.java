@@ -0,0 +1,59 @@
+package protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Mensagens enviadas pelo servidor: prefixo no protocolo de texto e opcode no protocolo binário
+public enum Reply {
+    SUCESSO("SUCESSO", 0x40),
+    ERRO("ERRO", 0x41),
+    INFO("INFO", 0x42),
+    SALAS("SALAS", 0x43),
+    USUARIOS("USUARIOS", 0x44),
+    MSG("MSG", 0x45),         // binário: id do usuário, id da sala, texto
+    ECO(null, 0x46),          // binário: id da sala, texto (no texto: "[sala] Você: ...")
+    DEFINE_USUARIO(null, 0x47), // binário: id, nome. Enviado antes do primeiro uso do id
+    DEFINE_SALA(null, 0x48),    // binário: id, nome
+    HISTORICO("HISTORICO", 0x49), // "primeiraSeq:quantidade", seguido das mensagens do histórico
+    ESTATISTICAS("ESTATISTICAS", 0x4A), // uma linha do resumo de métricas por mensagem
+    SESSAO("SESSAO", 0x4B),       // token para RETOMAR a sessão se a conexão cair
+    PING("PING", 0x4C),           // o cliente responde PONG; enviado quando a conexão fica em silêncio
+    BUSCA("BUSCA", 0x4D),         // quantidade de resultados, seguida de um ACHADO por resultado
+    ACHADO("ACHADO", 0x4E);       // "horárioMillis:usuario:texto"
+
+    private static final Map<String, Reply> BY_TEXT = new HashMap<>();
+    private static final Reply[] BY_OPCODE = new Reply[256];
+
+    static {
+        for (Reply reply : values()) {
+            if (reply.text != null) {
+                BY_TEXT.put(reply.text, reply);
+            }
+            BY_OPCODE[reply.opcode] = reply;
+        }
+    }
+
+    private final String text;
+    private final int opcode;
+
+    Reply(String text, int opcode) {
+        this.text = text;
+        this.opcode = opcode;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public int opcode() {
+        return opcode;
+    }
+
+    public static Reply fromText(String text) {
+        return BY_TEXT.get(text);
+    }
+
+    public static Reply fromOpcode(int opcode) {
+        return opcode >= 0 && opcode < BY_OPCODE.length ? BY_OPCODE[opcode] : null;
+    }
+}
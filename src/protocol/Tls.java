@@ -0,0 +1,53 @@
+package protocol;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+// TLS opcional entre cliente e servidor (--tls-keystore no servidor, --tls no cliente). Só TLS 1.3 e
+// 1.2. Cada SSLContext guarda o seu cache de sessões: o cliente deve reutilizar o mesmo contexto nas
+// reconexões para retomar a sessão (ticket ou id) em vez de fazer o handshake completo de novo.
+public final class Tls {
+    public static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+    private Tls() {
+    }
+
+    // Keystore PKCS12 ou JKS com o certificado e a chave privada do servidor
+    public static SSLContext serverContext(String keystore, String password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(new File(keystore), password.toCharArray());
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, password.toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        return context;
+    }
+
+    // truststore null: usa as autoridades da JVM (ou -Djavax.net.ssl.trustStore)
+    public static SSLContext clientContext(String truststore, String password) throws IOException, GeneralSecurityException {
+        if (truststore == null) {
+            return SSLContext.getDefault();
+        }
+        KeyStore store = KeyStore.getInstance(new File(truststore), password.toCharArray());
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    // Servidor: versões permitidas. Cliente: também confere se o certificado é do host conectado.
+    public static SSLParameters parameters(SSLContext context, boolean client) {
+        SSLParameters parameters = context.getDefaultSSLParameters();
+        parameters.setProtocols(PROTOCOLS);
+        if (client) {
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,60 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Decide, antes de qualquer trabalho do login, se o servidor aceita mais uma sessão agora. Recusa quando
+// está sobrecarregado (conexões abertas ou mensagens esperando nas filas de saída acima do limite) ou quando
+// a taxa de logins passou do configurado; quem é recusado recebe um retry-after e pode tentar de novo.
+public class AdmissionController {
+    private static final long QUEUE_SAMPLE_NANOS = 100_000_000L; // somar as filas percorre todos os clientes
+    private static final long OVERLOAD_RETRY_NANOS = 1_000_000_000L;
+
+    private final ChatServer server;
+    private final TokenBucket loginRate; // null = sem limite de taxa
+    private final long maxConnections;   // 0 = sem limite
+    private final long maxQueuedMessages; // 0 = sem limite
+    private volatile long queuedSample;
+    private volatile long sampledAt = System.nanoTime() - QUEUE_SAMPLE_NANOS;
+
+    public AdmissionController(ChatServer server, ServerConfig config) {
+        this.server = server;
+        this.loginRate = config.newLoginLimiter();
+        this.maxConnections = config.getMaxConnections();
+        this.maxQueuedMessages = config.getMaxQueuedMessages();
+    }
+
+    // 0 se o login (ou a retomada) pode seguir; senão, em quantos nanossegundos tentar de novo
+    public long admit(boolean resume) {
+        if (isOverloaded()) {
+            server.getMetrics().recordLoginRejected(false);
+            // Sorteado para que os recusados juntos não voltem todos juntos
+            return OVERLOAD_RETRY_NANOS + ThreadLocalRandom.current().nextLong(OVERLOAD_RETRY_NANOS);
+        }
+        // Retomadas não passam pelo limite de taxa: devolvem sessões que já existiam, sem lista de salas nem avisos
+        if (!resume && loginRate != null) {
+            long wait = loginRate.tryAcquire();
+            if (wait > 0) {
+                server.getMetrics().recordLoginRejected(true);
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    private boolean isOverloaded() {
+        if (maxConnections > 0 && server.getMetrics().getActiveConnections() > maxConnections) {
+            return true;
+        }
+        return maxQueuedMessages > 0 && queuedMessages() > maxQueuedMessages;
+    }
+
+    // Amostra reaproveitada por QUEUE_SAMPLE_NANOS; numa corrida, duas threads somam as filas, sem problema
+    private long queuedMessages() {
+        long now = System.nanoTime();
+        if (now - sampledAt >= QUEUE_SAMPLE_NANOS) {
+            queuedSample = server.getTotalQueuedMessages();
+            sampledAt = now;
+        }
+        return queuedSample;
+    }
+}
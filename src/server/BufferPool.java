@@ -0,0 +1,41 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// Buffers do SSLEngine de um event loop (só a thread do loop mexe). Uma conexão TLS pega um buffer de
+// rede ou de texto aberto só enquanto há bytes passando por ele e devolve assim que esvazia: conexões
+// ociosas não seguram os ~16 KB de cada um, e os buffers voltam a ser usados em vez de virar lixo.
+// Heap, não direto: o SSLEngine da JDK cifra mais rápido a partir de arrays.
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<>();
+    private final Metrics metrics;
+
+    public BufferPool(int bufferSize, int maxIdle, Metrics metrics) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+        this.metrics = metrics;
+    }
+
+    public ByteBuffer take() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            metrics.tlsBufferAllocated();
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (idle.size() < maxIdle && buffer.capacity() == bufferSize) {
+            buffer.clear();
+            idle.push(buffer); // o último devolvido sai primeiro: ainda está no cache da CPU
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
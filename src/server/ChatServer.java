@@ -1,56 +1,300 @@
 package server;
 
+import protocol.Reply;
+import protocol.Tls;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer
 {
     private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] eventLoops;
     private final int port;
-    private boolean isRunning;
+    private final ServerConfig config;
+    private volatile boolean isRunning;
     private ExecutorService threadPool;
     private RoomManager roomManager;
+    private RoomLog roomLog; // null quando --log-dir não foi informado
+    private final SearchIndex search; // null quando a busca está desativada
+    private final Metrics metrics = new Metrics();
+    private final DeflaterPool deflaterPool;
+    private final TimerWheel timers; // heartbeats, inatividade e sessões estacionadas de todas as conexões
+    private final SessionRegistry sessions; // null quando a retomada de sessão está desativada
+    private final AdmissionController admission;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private MetricsEndpoint metricsEndpoint; // null quando --metrics-port não foi informado
+    private Cluster cluster; // null fora do modo cluster
+    private SSLContext tls; // null sem --tls-keystore
     // Estruturas de dados para gerenciar clientes e salas
     private final ConcurrentHashMap<String, ClientHandler> clients = new ConcurrentHashMap<>();
 
     public ChatServer(int port) {  //construtor
-        this.port = port;
+        this(configForPort(port));
+    }
+
+    public ChatServer(ServerConfig config) {
+        this.config = config;
+        this.port = config.getPort();
         this.isRunning = false;
-        this.threadPool = Executors.newCachedThreadPool();
-        this.roomManager = new RoomManager();
+        this.threadPool = createExecutor(config.getMode());
+        this.search = config.isSearchEnabled() ? new SearchIndex(config, metrics) : null;
+        this.roomManager = new RoomManager(config, metrics, search);
+        // Compressores ociosos guardados: um por thread que escreve ao mesmo tempo já basta
+        this.deflaterPool = new DeflaterPool(config.getDeflateLevel(),
+                2 * Runtime.getRuntime().availableProcessors(), metrics);
+        // Ticks de 100 ms: os prazos são de segundos; 512 baldes dão uma volta de 51 s sem rounds extras
+        this.timers = new TimerWheel(100, TimeUnit.MILLISECONDS, 512, "timer-wheel");
+        this.sessions = config.isResumeEnabled() ? new SessionRegistry(this, config.getResumeGraceSeconds()) : null;
+        this.admission = new AdmissionController(this, config);
+        if (config.isLogEnabled()) {
+            openRoomLog();
+        }
+        if (config.isClusterEnabled()) {
+            cluster = new Cluster(this, roomManager, config.getNodeId(), config.getClusterNodes());
+        } else if (config.getNodeId() != null || !config.getClusterNodes().isEmpty()) {
+            System.err.println("Cluster desativado: --node-id precisa ser um dos nós de --cluster");
+        }
+    }
+
+    // Recria as salas e o histórico a partir dos segmentos do log antes de aceitar conexões
+    private void openRoomLog() {
+        try {
+            RoomLog log = new RoomLog(config);
+            log.setCheckpointSource(roomManager.getRooms());
+            log.replay(this::replayRoomEvent);
+            roomManager.setLog(log);
+            roomLog = log;
+        } catch (IOException e) {
+            System.err.println("Erro ao abrir o log de salas, continuando sem persistência: " + e.getMessage());
+        }
+    }
+
+    private void replayRoomEvent(RoomLog.EventType type, long timestamp, String room, String user, String text) {
+        switch (type) {
+            case CREATE:
+                roomManager.restoreRoom(room);
+                break;
+            case CLOSE:
+                roomManager.endRoom(room, timestamp);
+                break;
+            case MESSAGE:
+                roomManager.restoreMessage(room, user, text, timestamp);
+                break;
+            default:
+                // Entradas, saídas e expulsões ficam só como registro: nenhum cliente está conectado ao iniciar
+                break;
+        }
+    }
+
+    private static ExecutorService createExecutor(ServerConfig.ExecutionMode mode) {
+        if (mode == ServerConfig.ExecutionMode.VIRTUAL) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private static ServerConfig configForPort(int port) {
+        ServerConfig config = new ServerConfig();
+        config.setPort(port);
+        return config;
     }
 
     public void start() {
+        if (config.isTlsEnabled() && !initTls()) {
+            return;
+        }
+        startMetricsEndpoint();
+        if (cluster != null) {
+            try {
+                cluster.start();
+            } catch (IOException e) {
+                System.err.println("Erro ao iniciar o cluster: " + e.getMessage());
+                return;
+            }
+        }
+        if (config.getMode() == ServerConfig.ExecutionMode.NIO) {
+            if (config.isBlockPolicyIgnored()) {
+                System.err.println("--overflow-policy=block não vale no modo nio (a espera pararia o event loop); usando disconnect.");
+            }
+            startNio();
+            return;
+        }
+
         try {
-            serverSocket = new ServerSocket(port);
+            if (tls != null) {
+                serverSocket = tls.getServerSocketFactory().createServerSocket();
+                ((SSLServerSocket) serverSocket).setSSLParameters(Tls.parameters(tls, false));
+            } else {
+                serverSocket = new ServerSocket();
+            }
+            if (config.getReceiveBufferBytes() > 0) {
+                // Precisa ser definido antes do bind para valer para janelas TCP grandes
+                serverSocket.setReceiveBufferSize(config.getReceiveBufferBytes());
+            }
+            serverSocket.bind(new InetSocketAddress(port), config.getAcceptBacklog());
             isRunning = true;
 
-            System.out.println("Servidor de chat iniciado na porta " + port);
+            System.out.println("Servidor de chat (" + config.getMode().name().toLowerCase() + tlsLabel()
+                    + ") iniciado na porta " + port);
             System.out.println("Aguardando conexões...");
 
-            while (isRunning) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Nova conexão aceita: " + clientSocket.getRemoteSocketAddress());
+            startExtraAcceptors(this::acceptLoop);
+            acceptLoop();
+        } catch (IOException e) {
+            System.err.println("Erro ao iniciar servidor: " + e.getMessage());
+        }
+    }
 
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                    threadPool.submit(clientHandler);
+    // --tls-keystore: sem o certificado o servidor não sobe, para não aceitar em texto aberto por engano.
+    // O cache guarda as sessões retomadas por id; com tickets (padrão) o estado da sessão vai cifrado
+    // para o cliente e o servidor não guarda nada. Nos dois casos a reconexão pula o handshake completo.
+    private boolean initTls() {
+        // Lida pela JDK uma vez por processo, quando o primeiro SSLContext é criado
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", String.valueOf(config.isTlsTickets()));
+        try {
+            tls = Tls.serverContext(config.getTlsKeystore(), config.getTlsPassword());
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Erro ao carregar o certificado TLS: " + e.getMessage());
+            return false;
+        }
+        SSLSessionContext sessions = tls.getServerSessionContext();
+        sessions.setSessionCacheSize(config.getTlsSessionCache());
+        sessions.setSessionTimeout(config.getTlsSessionTimeoutSeconds());
+        return true;
+    }
 
-                } catch (IOException e) {
-                    if (isRunning) {
-                        System.err.println("Erro ao aceitar conexão: " + e.getMessage());
-                    }
+    private String tlsLabel() {
+        return tls != null ? ", TLS" : "";
+    }
+
+    public SSLContext getTlsContext() {
+        return tls;
+    }
+
+    public SSLEngine newTlsEngine() {
+        SSLEngine engine = tls.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setSSLParameters(Tls.parameters(tls, false));
+        return engine;
+    }
+
+    private void acceptLoop() {
+        while (isRunning) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                System.out.println("Nova conexão aceita: " + clientSocket.getRemoteSocketAddress());
+                configureSocket(clientSocket);
+
+                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                threadPool.submit(clientHandler);
+
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.err.println("Erro ao aceitar conexão: " + e.getMessage());
                 }
             }
+        }
+    }
+
+    // --acceptors=N: as threads extras aceitam do mesmo socket que a thread principal. O accept em si é
+    // serializado pelo kernel, mas o trabalho de cada conexão aceita (opções do socket, log, handler) não
+    // fica atrás de uma única thread durante uma enxurrada de conexões.
+    private void startExtraAcceptors(Runnable acceptLoop) {
+        for (int i = 1; i < config.getAcceptors(); i++) {
+            Thread acceptor = new Thread(acceptLoop, "acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    // Opções de socket de cada conexão aceita (--tcp-nodelay, --send-buffer-kb, --receive-buffer-kb).
+    // Com TCP_NODELAY o Nagle fica desligado: quem junta as mensagens é a FlushPolicy do writer.
+    private void configureSocket(Socket socket) throws IOException {
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        if (config.getSendBufferBytes() > 0) {
+            socket.setSendBufferSize(config.getSendBufferBytes());
+        }
+        if (config.getReceiveBufferBytes() > 0) {
+            socket.setReceiveBufferSize(config.getReceiveBufferBytes());
+        }
+    }
+
+    private void startMetricsEndpoint() {
+        if (config.getMetricsPort() <= 0) {
+            return;
+        }
+        try {
+            metricsEndpoint = new MetricsEndpoint(this, config.getMetricsPort());
+            metricsEndpoint.start();
+        } catch (IOException e) {
+            System.err.println("Erro ao iniciar o endpoint de métricas: " + e.getMessage());
+        }
+    }
+
+    // Modo NIO: a thread atual só aceita conexões e as distribui entre os event loops
+    private void startNio() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            if (config.getReceiveBufferBytes() > 0) {
+                serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferBytes());
+            }
+            serverChannel.bind(new InetSocketAddress(port), config.getAcceptBacklog());
+
+            eventLoops = new NioEventLoop[config.getEventLoops()];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop(this, i);
+                eventLoops[i].start();
+            }
+            isRunning = true;
+
+            System.out.println("Servidor de chat (NIO, " + eventLoops.length + " event loops" + tlsLabel()
+                    + ") iniciado na porta " + port);
+            System.out.println("Aguardando conexões...");
+
+            startExtraAcceptors(this::acceptNioLoop);
+            acceptNioLoop();
         } catch (IOException e) {
             System.err.println("Erro ao iniciar servidor: " + e.getMessage());
         }
     }
 
+    private void acceptNioLoop() {
+        while (isRunning) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                System.out.println("Nova conexão aceita: " + channel.getRemoteAddress());
+                configureSocket(channel.socket());
+
+                eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)].register(channel);
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.err.println("Erro ao aceitar conexão: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     public void stop() {
         isRunning = false;
 
@@ -63,7 +307,28 @@ public class ChatServer
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+            if (eventLoops != null) {
+                for (NioEventLoop loop : eventLoops) {
+                    loop.stop();
+                }
+            }
             threadPool.shutdown();
+            timers.stop();
+            if (search != null) {
+                search.stop();
+            }
+            if (roomLog != null) {
+                roomLog.close();
+            }
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
+            if (cluster != null) {
+                cluster.stop();
+            }
             System.out.println("Servidor encerrado.");
         } catch (IOException e) {
             System.err.println("Erro ao encerrar servidor: " + e.getMessage());
@@ -71,64 +336,247 @@ public class ChatServer
     }
 
 
-    // Métodos para gerenciar clientes
-    public synchronized boolean isUsernameTaken(String nome) {
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public RoomManager getRoomManager() {
+        return roomManager;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+    // Usado pelos ClientHandler para iniciar o writer da fila de saída
+    public void execute(Runnable task) {
+        threadPool.execute(task);
+    }
+
+    // Métodos para gerenciar clientes (sem synchronized: evita prender a carrier thread das virtual threads)
+    public boolean isUsernameTaken(String nome) {
         return clients.containsKey(nome);
     }
 
-    public synchronized void addClient(ClientHandler handler) {
-        clients.put(handler.getUsername(), handler);
+    // false se o nome foi registrado por outro cliente ao mesmo tempo (neste nó ou, no modo cluster, em
+    // qualquer nó). Só não vem pronto quando o nome é de outro nó do cluster e a resposta dele ainda falta
+    public CompletableFuture<Boolean> addClient(ClientHandler handler) {
+        String username = handler.getUsername();
+        if (clients.putIfAbsent(username, handler) != null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        // Enquanto o nome está registrado ele segura o id do usuário (solto em forgetClient)
+        SymbolTable.USERS.acquire(username);
+        if (cluster == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return cluster.claimUsername(username).thenApply(claimed -> {
+            if (!claimed) {
+                forgetClient(handler);
+            }
+            return claimed;
+        });
+    }
+
+    // Sessão retomada: o nome continua reservado, só muda a conexão que o representa
+    public boolean replaceClient(ClientHandler oldHandler, ClientHandler newHandler) {
+        return clients.replace(oldHandler.getUsername(), oldHandler, newHandler);
     }
 
-    public synchronized void removeClient(ClientHandler handler) {
-        clients.remove(handler.getUsername());
+    public void transferSession(ClientHandler oldHandler, ClientHandler newHandler) {
+        replaceClient(oldHandler, newHandler);
+        roomManager.transferSubscriptions(oldHandler, newHandler);
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    public TimerWheel getTimers() {
+        return timers;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public void removeClient(ClientHandler handler) {
+        if (forgetClient(handler) && cluster != null) {
+            cluster.releaseUsername(handler.getUsername());
+        }
+    }
+
+    // Tira o nome do registro uma única vez e solta a referência ao id tomada em addClient
+    private boolean forgetClient(ClientHandler handler) {
+        String username = handler.getUsername();
+        if (!clients.remove(username, handler)) {
+            return false;
+        }
+        SymbolTable.USERS.release(SymbolTable.USERS.find(username));
+        return true;
+    }
+
+    public Set<String> getUsernames() {
+        return clients.keySet();
+    }
+
+    // Id do usuário no roteamento e no protocolo binário, enquanto o nome está registrado (ver addClient)
+    public int getUserId(String username) {
+        return SymbolTable.USERS.find(username);
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    // Soma das mensagens aguardando envio em todas as filas de saída
+    public long getTotalQueuedMessages() {
+        long total = 0;
+        for (ClientHandler client : clients.values()) {
+            total += client.getOutbound().getDepth();
+        }
+        return total;
+    }
+
+    public long getTotalDroppedMessages() {
+        long total = 0;
+        for (ClientHandler client : clients.values()) {
+            total += client.getOutbound().getDroppedCount();
+        }
+        return total;
     }
 
     // Métodos para gerenciar salas
     public boolean createRoom(String roomName) {
-        return roomManager.createRoom(roomName);
+        return cluster != null ? cluster.createRoom(roomName) : roomManager.createRoom(roomName);
     }
 
     public boolean enterRoom(ClientHandler client, String roomName) {
-        return roomManager.enterRoom(roomName, client);
+        boolean entered = roomManager.enterRoom(roomName, client);
+        if (entered && cluster != null) {
+            cluster.membershipChanged(roomName);
+            cluster.announce(roomName, Room.joinedNotice(client.getUsername()));
+        }
+        return entered;
     }
 
-    public boolean exitRoom(ClientHandler client, String roomName) {
-        return (roomManager.exitRoom(roomName, client));
+    public boolean exitRoom(ClientHandler client, int roomId) {
+        boolean left = roomManager.exitRoom(roomId, client);
+        if (left && cluster != null) {
+            String roomName = SymbolTable.ROOMS.name(roomId);
+            cluster.membershipChanged(roomName);
+            cluster.announce(roomName, Room.leftNotice(client.getUsername()));
+        }
+        return left;
+    }
+
+    // Desconexão: sai só das salas em que o cliente está inscrito
+    public void exitAllRooms(ClientHandler client) {
+        for (int roomId : client.getSubscriptions().toArray()) {
+            exitRoom(client, roomId);
+        }
     }
 
     public boolean closeRoom(String roomName) {
-        return roomManager.endRoom(roomName);
+        return cluster != null ? cluster.closeRoom(roomName) : roomManager.endRoom(roomName);
     }
 
+    // Aviso para a sala; no modo cluster chega também aos membros conectados a outros nós
     public void broadcastToRoom(String roomName, String message, ClientHandler sender) {
         roomManager.broadcastToRoom(roomName, message, sender);
+        if (cluster != null) {
+            cluster.announce(roomName, message);
+        }
+    }
+
+    // Retorna 0 se a mensagem foi enviada, ou os nanossegundos até a sala aceitar outra.
+    // No modo cluster o orçamento da sala é conferido no nó de quem envia.
+    public long broadcastChatMessage(int roomId, String message, ClientHandler sender) {
+        long retryAfter = roomManager.acquireRoomBudget(roomId, sender);
+        if (retryAfter > 0) {
+            return retryAfter;
+        }
+        if (cluster != null) {
+            cluster.publish(roomId, sender, message);
+        } else {
+            roomManager.broadcastChatMessage(roomId, message, sender);
+        }
+        return 0;
+    }
+
+    public int getRoomId(String roomName) {
+        return roomManager.getRoomId(roomName);
+    }
+
+    public Frame getRoomHistory(int roomId, long beforeSeq) {
+        return roomManager.getHistory(roomId, beforeSeq, config.getHistoryReplay());
+    }
+
+    public boolean isSearchEnabled() {
+        return search != null;
+    }
+
+    // Cabeçalho BUSCA seguido de um ACHADO por mensagem encontrada, num único frame
+    public Frame search(int roomId, String query, long from, long to) {
+        List<SearchIndex.Hit> hits = search.search(roomId, query, from, to, config.getSearchHits());
+        List<Frame> frames = new ArrayList<>(hits.size() + 1);
+        frames.add(Frame.of(Reply.BUSCA, String.valueOf(hits.size())));
+        for (SearchIndex.Hit hit : hits) {
+            String user = SymbolTable.USERS.name(hit.user);
+            frames.add(Frame.of(Reply.ACHADO, hit.time + ":" + (user != null ? user : "?") + ":" + hit.text));
+        }
+        return Frame.batch(frames);
     }
 
     public String getRoomsList() {
         return roomManager.listRooms();
     }
 
-    public String getUsersInRoom(String roomName) {
-        return roomManager.getUsersInRoom(roomName);
+    public Frame getRoomsPage(int page) {
+        return roomManager.getRoomListPage(page);
     }
 
-    public boolean kickUserFromRoom(String roomName, String username) {
-        return roomManager.kickUser(roomName, username);
+    // No modo cluster junta os membros dos outros nós: espera as respostas, então só é chamado fora da
+    // thread de leitura (ver isClustered)
+    public String getUsersInRoom(int roomId) {
+        String users = roomManager.getUsersInRoom(roomId);
+        if (cluster == null) {
+            return users;
+        }
+        StringBuilder sb = new StringBuilder(users);
+        for (String remote : cluster.usersInRoom(SymbolTable.ROOMS.name(roomId))) {
+            if (!remote.isEmpty()) {
+                sb.append(sb.length() > 0 ? "," : "").append(remote);
+            }
+        }
+        return sb.toString();
     }
 
+    public boolean isClustered() {
+        return cluster != null;
+    }
 
-    public static void main(String[] args) {
-        int port = 12345;
-
-        if (args.length > 0) {
-            try {
-                port = Integer.parseInt(args[0]);
-            } catch (NumberFormatException e) {
-                System.err.println("Porta inválida, usando porta padrão: " + port);
+    public boolean kickUserFromRoom(String roomName, String username) {
+        if (roomManager.kickUser(roomName, username)) {
+            if (cluster != null) {
+                cluster.membershipChanged(roomName);
+                cluster.announce(roomName, Room.leftNotice(username));
             }
+            return true;
         }
-        ChatServer server = new ChatServer(port);
+        // O usuário pode estar em outro nó; a expulsão é feita lá e só conta se algum nó o tinha na sala
+        return cluster != null && cluster.kickRemote(roomName, username);
+    }
+
+
+    // Uso: java server.ChatServer [porta] [--mode=threads|virtual|nio] [--event-loops=N]
+    public static void main(String[] args) {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        ChatServer server = new ChatServer(config);
 
         // Adiciona shutdown hook para encerrar
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
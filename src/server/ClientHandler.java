@@ -1,16 +1,56 @@
 package server;
+import protocol.BinaryCodec;
+import protocol.Command;
+import protocol.Compression;
+import protocol.FrameDecoder;
+import protocol.Reply;
+
+import javax.net.ssl.SSLSocket;
 import java.net.*;
 import java.io.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+public class ClientHandler implements Runnable, FrameDecoder.Listener {
+    private static final Frame PING = Frame.of(Reply.PING, "");
+    // Comandos esperando atrás de uma operação de admin; passando disso o comando é recusado
+    private static final int MAX_QUEUED_COMMANDS = 1024;
 
-public class ClientHandler implements Runnable{
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private volatile OutputStream out; // trocado pelo writer quando a compressão começa
+    private OutputStream socketOut;
+    private NioConnection connection; // usado apenas no modo NIO
+    private final OutboundQueue outbound;
+    private final FrameDecoder decoder = new FrameDecoder(this);
     private String username;
-    private String currentRoom;
-    private boolean connected;
+    private int userId;
+    private final Subscriptions subscriptions = new Subscriptions(); // salas inscritas e a ativa
+    private final CommandLane lane;
+    private int requestId; // id do comando em processamento (0 = sem id); as respostas a ele levam o id
+    // Modo bloqueante: login ou RETOMAR ainda na fila; a thread de leitura espera antes de decodificar mais
+    private volatile CompletableFuture<Void> readBarrier;
+    private CompletableFuture<Void> completion; // o comando em processamento termina depois (login no cluster)
+    private String resumeToken; // null sem retomada de sessão
+    // Não null enquanto a sessão está estacionada: o que for enviado fica guardado para o RETOMAR
+    private volatile MissedFrames missed;
+    private volatile ClientHandler successor; // conexão que retomou esta sessão
+    // Modo bloqueante: o writer só começa com o primeiro frame, então uma conexão que nunca recebe nada
+    // (por exemplo, numa enxurrada de conexões sem login) ocupa só a thread de leitura
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    private volatile boolean connected;
+    // Heartbeat e inatividade: um timer por conexão na roda do servidor, reagendado a cada verificação
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile long lastCommandNanos = lastReadNanos;
+    private long pingSentNanos; // PING ainda sem resposta; só a thread da roda mexe
     private ChatServer server;
+    private final Metrics metrics;
+    private final TokenBucket sendLimiter; // null quando não há limite por usuário
     private boolean isAdmin;
 
     public ClientHandler(Socket socket, ChatServer server) {
@@ -18,75 +58,377 @@ public class ClientHandler implements Runnable{
         this.server = server;
         this.connected = true;
         this.username = null;
-        this.currentRoom = null;
         this.isAdmin = false;
+        this.outbound = server.getConfig().newOutboundQueue();
+        this.metrics = server.getMetrics();
+        this.sendLimiter = server.getConfig().newUserLimiter();
+        this.lane = new CommandLane(server::execute, MAX_QUEUED_COMMANDS);
+        metrics.connectionOpened();
 
         try{
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            in = socket.getInputStream();
+            // Recebe os Frames já codificados; a FlushPolicy do writer decide quando o buffer vai para o socket
+            socketOut = new SocketWriteCounter(socket.getOutputStream(), metrics);
+            out = new BufferedOutputStream(socketOut, server.getConfig().getFlushBytes());
         }catch(IOException e){
             System.err.println("Erro ao inicializar ClientHandler: " + e.getMessage());
             disconnect();
         }
+        startLivenessChecks();
+    }
+
+    public ClientHandler(NioConnection connection, ChatServer server) {
+        this.connection = connection;
+        this.server = server;
+        this.connected = true;
+        this.username = null;
+        this.isAdmin = false;
+        this.outbound = server.getConfig().newOutboundQueue();
+        this.outbound.setOnAvailable(connection::requestWrite);
+        this.metrics = server.getMetrics();
+        this.sendLimiter = server.getConfig().newUserLimiter();
+        this.lane = new CommandLane(server::execute, MAX_QUEUED_COMMANDS);
+        metrics.connectionOpened();
+        startLivenessChecks();
+    }
+
+    // Cliente sem conexão, usado pelos benchmarks: as mensagens só ficam na fila de saída
+    public ClientHandler(ChatServer server) {
+        this.server = server;
+        this.connected = true;
+        this.outbound = server.getConfig().newOutboundQueue();
+        this.metrics = server.getMetrics();
+        this.sendLimiter = server.getConfig().newUserLimiter();
+        this.lane = new CommandLane(server::execute, MAX_QUEUED_COMMANDS);
+        metrics.connectionOpened();
     }
 
     @Override
     public void run() {
+        if (socket instanceof SSLSocket && !handshake((SSLSocket) socket)) {
+            connectionLost();
+            return;
+        }
         try{
-            String message;
-            while(connected && (message = in.readLine()) != null){
-                processMessage(message);
+            byte[] buffer = new byte[8192];
+            int read;
+            while(connected && (read = in.read(buffer)) != -1){
+                lastReadNanos = System.nanoTime();
+                metrics.addBytesIn(read);
+                decoder.feed(buffer, 0, read);
+                awaitReadBarrier();
             }
         }catch(IOException e){
             System.err.println("Erro na comunicação com o ClientHandler: " + e.getMessage());
         }finally{
-            disconnect();
+            connectionLost();
+        }
+    }
+
+    // TLS no modo bloqueante: o handshake roda aqui, na thread deste cliente, e não na de accept. Os
+    // buffers de registro ficam com o SSLSocket (o pool de buffers é do modo NIO).
+    private boolean handshake(SSLSocket tlsSocket) {
+        long startNanos = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        try {
+            tlsSocket.startHandshake();
+        } catch (IOException e) {
+            metrics.tlsHandshakeFailed();
+            System.err.println("Handshake TLS falhou com " + tlsSocket.getRemoteSocketAddress() + ": " + e.getMessage());
+            return false;
+        }
+        metrics.tlsHandshake(tlsSocket.getSession(), startMillis, System.nanoTime() - startNanos);
+        return true;
+    }
+
+    // Writer do modo bloqueante: esvazia a fila de saída no socket. Os frames se acumulam no buffer
+    // enquanto a fila tem mais, ou durante a janela de flush, e saem juntos numa só escrita.
+    private void writeLoop() {
+        WireEncoder encoder = new WireEncoder();
+        FlushPolicy flush = server.getConfig().newFlushPolicy();
+        List<Frame> toWrite = new ArrayList<>(3);
+        try {
+            Frame frame = outbound.take();
+            while (frame != null) {
+                if (frame.isDeflateStart() && !(out instanceof CompressedOutputStream)) {
+                    // O que já estava no buffer (a resposta do login) sai sem compressão
+                    out.flush();
+                    flush.flushed();
+                    out = new CompressedOutputStream(socketOut, server.getDeflaterPool(),
+                            server.getConfig().getFlushBytes());
+                }
+                encoder.encode(frame, toWrite);
+                for (Frame f : toWrite) {
+                    f.writeTo(out, encoder.isBinary());
+                    flush.written(f.length(encoder.isBinary()), frame.isDroppable());
+                }
+                metrics.addFramesOut(toWrite.size());
+                toWrite.clear();
+                if (flush.isFull()) {
+                    out.flush();
+                    flush.flushed();
+                }
+
+                frame = outbound.poll();
+                if (frame == null && flush.hasPending()) {
+                    long wait = flush.waitNanos();
+                    if (wait > 0) {
+                        frame = outbound.poll(wait);
+                    }
+                    if (frame == null) {
+                        out.flush();
+                        flush.flushed();
+                    }
+                }
+                if (frame == null) {
+                    frame = outbound.take();
+                }
+            }
+        } catch (IOException e) {
+            if (connected) {
+                System.err.println("Erro ao enviar para o cliente: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connectionLost();
+        }
+    }
+
+    // Bytes recebidos no modo NIO
+    public void onBytes(ByteBuffer data) throws IOException {
+        lastReadNanos = System.nanoTime();
+        metrics.addBytesIn(data.remaining());
+        decoder.feed(data);
+    }
+
+    @Override
+    public void onLine(String line) {
+        if (connected) {
+            processMessage(line);
         }
     }
 
-    private void processMessage(String message){
+    // Protocolo binário: o opcode já identifica o comando e o payload é o argumento, sem split.
+    // Com REQUEST_ID_FLAG no opcode, o payload começa com o id de requisição.
+    @Override
+    public void onFrame(int opcode, ByteBuffer payload) {
+        if (!connected) {
+            return;
+        }
+        int id = 0;
+        if ((opcode & BinaryCodec.REQUEST_ID_FLAG) != 0) {
+            opcode &= ~BinaryCodec.REQUEST_ID_FLAG;
+            try {
+                id = BinaryCodec.readVarint(payload);
+            } catch (RuntimeException e) {
+                rejectCommand("Id de requisição inválido", 0);
+                return;
+            }
+        }
+        Command command = Command.fromOpcode(opcode);
+        if (command == null) {
+            metrics.recordUnknownCommand();
+            rejectCommand("Comando nao reconhecido " + opcode, id);
+            return;
+        }
+        try {
+            String data = payload.hasRemaining() ? BinaryCodec.readString(payload) : "";
+            submit(command, data, id);
+        } catch (RuntimeException e) {
+            rejectCommand("Frame inválido para " + command.text(), id);
+        }
+    }
+
+    // "COMANDO:dados" ou "#id:COMANDO:dados"
+    public void processMessage(String message){
+        int id = 0;
+        if (message.startsWith(Command.REQUEST_ID_PREFIX)) {
+            int colon = message.indexOf(':');
+            id = Command.parseRequestId(colon > 0 ? message.substring(0, colon) : message);
+            if (id == 0) {
+                rejectCommand("Id de requisição inválido: " + message, 0);
+                return;
+            }
+            message = message.substring(colon + 1);
+        }
         String[] parts = message.split(":", 2);
         String command = parts[0];
         String data = parts.length > 1? parts[1] : "";
 
+        Command parsed = Command.fromText(command);
+        if (parsed == null) {
+            metrics.recordUnknownCommand();
+            rejectCommand("Comando nao reconhecido " + command, id);
+            return;
+        }
+        submit(parsed, data, id);
+    }
+
+    // As operações de admin (encerrar uma sala cheia, por exemplo) saem da thread de leitura; o resto roda
+    // nela, a não ser que ainda haja comandos da conexão esperando na fila (ver CommandLane)
+    private void submit(Command command, String data, int id) {
+        boolean heavy = command == Command.CRIAR_SALA || command == Command.EXPULSAR || command == Command.ENCERRAR_SALA
+                || command == Command.ENTRAR_SALA && server.isClustered(); // USUARIOS espera os outros nós
+        if (heavy || lane.isBusy()) {
+            metrics.commandQueued();
+        }
+        if (command == Command.LOGIN || command == Command.RETOMAR) {
+            submitBarrier(command, data, id);
+            return;
+        }
+        if (!lane.submit(() -> processCommand(command, data, id), heavy)) {
+            sendError("Comandos demais aguardando processamento.", id);
+        }
+    }
+
+    // Erro de um comando que nem chegou a ser aceito: também passa pela fila, para não chegar antes das
+    // respostas dos comandos anteriores que ainda esperam nela
+    private void rejectCommand(String message, int id) {
+        if (!lane.submit(() -> sendError(message, id), false)) {
+            sendError(message, id);
+        }
+    }
+
+    // Login e RETOMAR decidem o protocolo do que vem depois (BIN). Se o comando não termina agora, por
+    // estar na fila atrás de uma operação de admin ou esperando outro nó do cluster, os bytes seguintes ficam no decoder até ele terminar,
+    // em vez de serem lidos no protocolo antigo
+    private void submitBarrier(Command command, String data, int id) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                processCommand(command, data, id);
+            } finally {
+                CompletableFuture<Void> pending = completion;
+                completion = null;
+                if (pending == null) {
+                    done.complete(null);
+                } else {
+                    pending.whenComplete((r, e) -> done.complete(null));
+                }
+            }
+        };
+        if (!lane.submit(task, false)) {
+            sendError("Comandos demais aguardando processamento.", id);
+            return;
+        }
+        if (!done.isDone()) {
+            pauseReading(done);
+        }
+    }
+
+    // Na thread de leitura, dentro do callback do decoder
+    private void pauseReading(CompletableFuture<Void> done) {
+        decoder.pause();
+        if (connection != null) {
+            connection.setReadInterest(false);
+            done.whenComplete((r, e) -> connection.resumeReads());
+        } else {
+            readBarrier = done;
+        }
+    }
+
+    private void awaitReadBarrier() throws IOException {
+        CompletableFuture<Void> barrier;
+        while ((barrier = readBarrier) != null) {
+            barrier.join();
+            readBarrier = null;
+            decoder.resume(); // pode pausar de novo
+        }
+    }
+
+    // Modo NIO, na thread do loop, quando o comando que pausou a leitura termina
+    public void resumeDecoding() throws IOException {
+        decoder.resume();
+    }
+
+    public boolean isReadPaused() {
+        return decoder.isPaused();
+    }
+
+    private void processCommand(Command command, String data, int id){
+        if (!acceptsFrames()) {
+            return; // DESCONECTAR (ou a queda) veio antes deste comando na fila
+        }
+        long start = System.nanoTime();
+        if (command != Command.PONG) {
+            lastCommandNanos = start;
+        }
+        requestId = id;
+        try {
+            dispatch(command, data);
+        } finally {
+            requestId = 0;
+        }
+        metrics.recordCommand(command, System.nanoTime() - start);
+    }
+
+    private void dispatch(Command command, String data){
         switch(command){
-            case "login":
+            case LOGIN:
                 processLogin(data);
                 break;
-            case "LISTAR_SALAS":
-                listRooms();
+            case LISTAR_SALAS:
+                listRooms(data);
                 break;
-            case "ENTRAR_SALA":
+            case ENTRAR_SALA:
                 enterRoom(data);
                 break;
-            case "SAIR_SALA":
-                exitRoom();
+            case SAIR_SALA:
+                exitRoom(data);
                 break;
-            case "MENSAGEM":
+            case USAR_SALA:
+                useRoom(data);
+                break;
+            case RETOMAR:
+                processResume(data);
+                break;
+            case MENSAGEM:
                 sendChatMessage(data);
                 break;
-            case "CRIAR_SALA":
+            case CRIAR_SALA:
                 createRoom(data);
                 break;
-            case "EXPULSAR":
+            case EXPULSAR:
                 kickUser(data);
                 break;
-            case "ENCERRAR_SALA":
+            case ENCERRAR_SALA:
                 closeRoom(data);
                 break;
-            case "DESCONECTAR":
+            case DESCONECTAR:
                 disconnect();
                 break;
-            default:
-                sendError("Comando nao reconhecido " + command);
+            case HISTORICO:
+                sendHistory(data);
+                break;
+            case ESTATISTICAS:
+                sendStats();
+                break;
+            case BUSCAR:
+                search(data);
+                break;
+            case PONG:
+                break; // a leitura já contou como sinal de vida
         }
 
     }
 
     private void processLogin(String data) {
-        String[] loginParts = data.split(":");
+        if (username != null) {
+            sendError("Você já está logado.");
+            return;
+        }
+        String[] loginParts = data.split(":", -1);
         String username = loginParts[0];
         String key = loginParts.length > 1 ? loginParts[1] : "";
+        if (username.isBlank()) {
+            sendError("Nome de usuário inválido. Use login:nome[:senha]");
+            return;
+        }
+
+        if (!admitted(false)) {
+            return;
+        }
 
         // Verifica se o nome já está em uso
         if (server.isUsernameTaken(username)) {
@@ -100,72 +442,315 @@ public class ClientHandler implements Runnable{
         }
 
         this.username = username;
-        server.addClient(this);
+        CompletableFuture<Boolean> added = server.addClient(this);
+        String flags = loginParts.length > 2 ? loginParts[2] : "";
+        if (added.isDone()) {
+            finishLogin(added.join(), flags);
+            return;
+        }
+        // No cluster o dono do nome pode ser outro nó: o login termina quando ele responder, sem prender a
+        // thread de leitura (no modo nio, o event loop). Até lá a leitura fica pausada (ver submitBarrier)
+        int id = requestId;
+        completion = added.thenAccept(ok -> {
+            requestId = id;
+            try {
+                finishLogin(ok, flags);
+            } finally {
+                requestId = 0;
+            }
+        });
+    }
+
+    private void finishLogin(boolean added, String flags) {
+        if (!added) {
+            this.username = null;
+            this.isAdmin = false;
+            sendError("Nome de usuário já está em uso!");
+            return;
+        }
+
+        userId = server.getUserId(username);
 
         if (isAdmin) {
             sendSuccess("Login realizado como administrador: " + username);
         } else {
             sendSuccess("Login realizado: " + username);
         }
+        applyConnectionFlags(flags);
+        issueResumeToken();
 
         System.out.println("Usuario " + username + " conectado" + (isAdmin ? " (Admin)" : ""));
     }
 
-    private void listRooms() {
+    // Controle de admissão antes de qualquer trabalho do login; a conexão continua aberta para tentar de novo
+    private boolean admitted(boolean resume) {
+        long wait = server.getAdmission().admit(resume);
+        if (wait > 0) {
+            sendThrottled("Servidor ocupado, login não aceito agora.", wait);
+            return false;
+        }
+        return true;
+    }
+
+    // Flags do login e do RETOMAR ("BIN", "DEFLATE" ou "BIN,DEFLATE"), chamado logo depois da resposta
+    private void applyConnectionFlags(String flags) {
+        boolean binary = false;
+        boolean deflate = false;
+        for (String flag : flags.split(",")) {
+            binary |= flag.equalsIgnoreCase(BinaryCodec.LOGIN_FLAG);
+            deflate |= flag.equalsIgnoreCase(Compression.LOGIN_FLAG);
+        }
+
+        // A resposta do login ainda vai em texto; o que vier depois, nos dois sentidos, é binário
+        if (binary) {
+            sendFrame(Frame.SWITCH_TO_BINARY);
+            decoder.setBinary(true);
+        }
+        // Só o que o servidor envia é comprimido; o cliente continua mandando sem compressão
+        if (deflate) {
+            sendFrame(Frame.START_DEFLATE);
+            metrics.compressionStarted();
+        }
+    }
+
+    // Um token novo a cada login e a cada retomada; o anterior deixa de valer
+    private void issueResumeToken() {
+        SessionRegistry sessions = server.getSessions();
+        if (sessions != null) {
+            resumeToken = sessions.register(this);
+            sendFrame(Frame.of(Reply.SESSAO, resumeToken));
+        }
+    }
+
+    // RETOMAR:token[:flags] assume a sessão de uma conexão que caiu (ou que ainda não percebeu que caiu):
+    // mesmo usuário, mesmas salas, e o que chegou nesse meio-tempo num único lote, sem novo login
+    private void processResume(String data) {
+        if (username != null) {
+            sendError("Você já está logado.");
+            return;
+        }
+        if (!admitted(true)) {
+            return;
+        }
+        String[] parts = data.split(":", 2);
+        SessionRegistry sessions = server.getSessions();
+        ClientHandler old = sessions != null ? sessions.claim(parts[0]) : null;
+        if (old != null) {
+            old.park(); // ainda conectada: a conexão antiga é fechada e a sessão passa para esta
+        }
+        MissedFrames parkedFrames = old != null ? old.missed : null;
+        if (parkedFrames == null || old.successor != null) {
+            sendError("Sessão expirada ou inválida. Faça login novamente.");
+            return;
+        }
+
+        username = old.username;
+        userId = old.userId;
+        isAdmin = old.isAdmin;
+        // Até o lote sair, o que chegar para esta conexão fica no mesmo buffer, depois do que já estava lá
+        missed = parkedFrames;
+        old.successor = this;
+        server.transferSession(old, this);
+
+        // Com o lock do buffer, um envio concorrente só segue para a fila de saída depois do lote
+        synchronized (parkedFrames) {
+            List<Frame> frames = parkedFrames.close();
+            long dropped = parkedFrames.getDropped();
+            sendSuccess("Sessão retomada: " + username);
+            applyConnectionFlags(parts.length > 1 ? parts[1] : "");
+            issueResumeToken();
+            metrics.sessionResumed(frames.size());
+            if (dropped > 0) {
+                frames.add(0, Frame.of(Reply.INFO, dropped + " mensagens antigas foram descartadas enquanto você estava desconectado."));
+            }
+            if (!frames.isEmpty()) {
+                sendFrame(Frame.batch(frames));
+            }
+        }
+        missed = null;
+        System.out.println("Usuario " + username + " retomou a sessão (" + subscriptions.size() + " salas)");
+    }
+
+    // LISTAR_SALAS[:página]; a resposta vem pronta do cache do RoomManager
+    private void listRooms(String data) {
         if (!isLoggedIn()) return;
 
-        String roomsList = server.getRoomsList();
-        out.println("SALAS:" + roomsList);
+        int page = 1;
+        if (!data.isEmpty()) {
+            try {
+                page = Integer.parseInt(data.trim());
+            } catch (NumberFormatException e) {
+                sendError("Página inválida: " + data);
+                return;
+            }
+        }
+        int requested = page;
+        query(() -> {
+            Frame roomsPage = server.getRoomsPage(requested);
+            return roomsPage != null ? roomsPage : Frame.of(Reply.ERRO, "Página de salas inexistente: " + requested);
+        });
     }
 
+    // Uma conexão pode estar em várias salas ao mesmo tempo; a última em que entrou passa a ser a ativa
     private void enterRoom(String roomName) {
         if (!isLoggedIn()) return;
 
-        if (currentRoom != null) {
-            sendError("Você já está em uma sala. Use /sair primeiro.");
+        // find não cria id para nomes digitados errado; 0 nunca é uma inscrição
+        if (subscriptions.contains(SymbolTable.ROOMS.find(roomName))) {
+            sendError("Você já está na sala: " + roomName + ". Use /para " + roomName + " para escrever nela.");
+            return;
+        }
+        if (subscriptions.size() >= server.getConfig().getMaxRoomsPerConnection()) {
+            sendError("Limite de " + server.getConfig().getMaxRoomsPerConnection()
+                    + " salas por conexão atingido. Use /sair <sala> primeiro.");
             return;
         }
 
         if (server.enterRoom(this, roomName)) {
-            currentRoom = roomName;
+            // A partir daqui a sala é referida só pelo id
+            int roomId = server.getRoomId(roomName);
             sendSuccess("Entrou na sala: " + roomName);
 
             // Lista usuários na sala
-            String usersList = server.getUsersInRoom(roomName);
-            out.println("USUARIOS:" + usersList);
+            String usersList = server.getUsersInRoom(roomId);
+            reply(Frame.of(Reply.USUARIOS, usersList));
+
+            // Últimas mensagens da sala, numa única escrita
+            if (server.getConfig().getHistoryReplay() > 0) {
+                reply(server.getRoomHistory(roomId, Long.MAX_VALUE));
+            }
         } else {
             sendError("Não foi possível entrar na sala: " + roomName);
         }
     }
 
-    private void exitRoom() {
+    // SAIR_SALA[:sala]; sem sala, sai da sala ativa
+    private void exitRoom(String roomName) {
         if (!isLoggedIn()){
             return;
         }
 
-        if (currentRoom == null) {
-            sendError("Você não está em nenhuma sala.");
+        int roomId = roomName.isEmpty() ? subscriptions.getActive() : SymbolTable.ROOMS.find(roomName);
+        if (roomId == 0 || !subscriptions.contains(roomId)) {
+            sendError(roomName.isEmpty() ? "Você não está em nenhuma sala." : "Você não está na sala: " + roomName);
             return;
         }
 
-        server.exitRoom(this, currentRoom);
-        String oldRoom = currentRoom;
-        currentRoom = null;
-        sendSuccess("Saiu da sala: " + oldRoom);
+        server.exitRoom(this, roomId);
+        sendSuccess("Saiu da sala: " + SymbolTable.ROOMS.name(roomId));
+    }
+
+    // USAR_SALA:sala escolhe a sala ativa entre as inscritas
+    private void useRoom(String roomName) {
+        if (!isLoggedIn()) return;
+
+        if (!subscriptions.setActive(SymbolTable.ROOMS.find(roomName))) {
+            sendError("Você não está na sala: " + roomName + ". Use /entrar " + roomName + " primeiro.");
+            return;
+        }
+        sendSuccess("Sala ativa: " + roomName);
     }
 
     private void sendChatMessage(String message) {
         if (!isLoggedIn()) return;
 
-        if (currentRoom == null) {
+        int roomId = subscriptions.getActive();
+        if (roomId == 0) {
             sendError("Você precisa estar em uma sala para enviar mensagens.");
             return;
         }
 
-        server.broadcastToRoom(currentRoom, "MSG:" + username + ":" + currentRoom + ":" + message, this);
+        // Limite do usuário antes de qualquer trabalho de fan-out; administradores não têm limite
+        if (sendLimiter != null && !isAdmin) {
+            long wait = sendLimiter.tryAcquire();
+            if (wait > 0) {
+                metrics.recordUserThrottle();
+                sendThrottled("Você está enviando mensagens rápido demais.", wait);
+                return;
+            }
+        }
+
+        long roomWait = server.broadcastChatMessage(roomId, message, this);
+        if (roomWait > 0) {
+            sendThrottled("A sala atingiu o limite de mensagens.", roomWait);
+            return;
+        }
 
         // Echo da própria mensagem
-        out.println("[" + currentRoom + "] Você: " + message);
+        reply(Frame.echo(roomId, message));
+    }
+
+    // HISTORICO[:seq] pagina para trás a partir da mensagem seq (exclusiva) da sala atual
+    private void sendHistory(String data) {
+        if (!isLoggedIn()) return;
+
+        int roomId = subscriptions.getActive();
+        if (roomId == 0) {
+            sendError("Você precisa estar em uma sala para ver o histórico.");
+            return;
+        }
+
+        long beforeSeq = Long.MAX_VALUE;
+        if (!data.isEmpty()) {
+            try {
+                beforeSeq = Long.parseLong(data.trim());
+            } catch (NumberFormatException e) {
+                sendError("Número de sequência inválido: " + data);
+                return;
+            }
+        }
+        long before = beforeSeq;
+        query(() -> server.getRoomHistory(roomId, before));
+    }
+
+    // BUSCAR:desde:ate:termos na sala atual. Como as outras consultas: no executor só com id de requisição,
+    // senão a BUSCA chegaria depois das respostas aos comandos seguintes
+    private void search(String data) {
+        if (!isLoggedIn()) return;
+
+        if (!server.isSearchEnabled()) {
+            sendError("A busca está desativada neste servidor.");
+            return;
+        }
+        int roomId = subscriptions.getActive();
+        if (roomId == 0) {
+            sendError("Você precisa estar em uma sala para buscar.");
+            return;
+        }
+        String[] parts = data.split(":", 3);
+        if (parts.length < 3 || parts[2].trim().isEmpty()) {
+            sendError("Uso: BUSCAR:desde:ate:termos");
+            return;
+        }
+        long from;
+        long to;
+        try {
+            from = parts[0].isEmpty() ? 0 : Long.parseLong(parts[0]);
+            to = parts[1].isEmpty() ? 0 : Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            sendError("Horário inválido na busca: " + data);
+            return;
+        }
+        String terms = parts[2];
+        query(() -> server.search(roomId, terms, from, to));
+    }
+
+    // Resumo das métricas, uma linha por mensagem, numa única escrita
+    private void sendStats() {
+        if (!isLoggedIn()) return;
+
+        if (!isAdmin) {
+            sendError("Apenas administradores podem ver as estatísticas.");
+            return;
+        }
+
+        query(() -> {
+            List<Frame> lines = new ArrayList<>();
+            for (String line : metrics.summary(server)) {
+                lines.add(Frame.of(Reply.ESTATISTICAS, line));
+            }
+            return Frame.batch(lines);
+        });
     }
 
     private void createRoom(String roomName) {
@@ -191,14 +776,16 @@ public class ClientHandler implements Runnable{
             return;
         }
 
-        if (currentRoom == null) {
+        int roomId = subscriptions.getActive();
+        if (roomId == 0) {
             sendError("Você precisa estar em uma sala para expulsar usuários.");
             return;
         }
 
-        if (server.kickUserFromRoom(currentRoom, targetUsername)) {
+        String roomName = SymbolTable.ROOMS.name(roomId);
+        if (server.kickUserFromRoom(roomName, targetUsername)) {
             sendSuccess("Usuário " + targetUsername + " expulso da sala.");
-            server.broadcastToRoom(currentRoom, "INFO:" + targetUsername + " foi expulso da sala pelo admin " + username, null);
+            server.broadcastToRoom(roomName, "INFO:" + targetUsername + " foi expulso da sala pelo admin " + username, null);
         } else {
             sendError("Não foi possível expulsar o usuário. Verifique se ele está na sala.");
         }
@@ -228,34 +815,240 @@ public class ClientHandler implements Runnable{
     }
 
     public void sendMessage(String message) {
-        if (out != null && connected) {
-            out.println(message);
+        sendFrame(Frame.control(message));
+    }
+
+    // Apenas enfileira; quem escreve no socket é o writer deste cliente
+    public void sendFrame(Frame frame) {
+        MissedFrames parkedFrames = missed;
+        if (parkedFrames != null && parkedFrames.add(frame)) {
+            return;
+        }
+        ClientHandler next = successor;
+        if (next != null) {
+            next.sendFrame(frame); // a sessão já está em outra conexão; alguém ainda tinha esta referência
+            return;
+        }
+        if (!connected) {
+            return;
+        }
+        if (!outbound.offer(frame)) {
+            System.out.println("Cliente lento desconectado: " + (username != null ? username : "(sem login)")
+                    + " (" + outbound.getDepth() + " mensagens pendentes)");
+            // Quem envia pode estar com o lock de ordem de uma sala: sair das salas (avisando as outras) fica
+            // para o executor, para dois broadcasts nunca esperarem um pelo lock da sala do outro
+            if (markClosed(null)) {
+                server.execute(this::release);
+            }
+            return;
+        }
+        if (socket != null && !writerStarted.get() && writerStarted.compareAndSet(false, true)) {
+            server.execute(this::writeLoop);
+        }
+    }
+
+    // Consulta só de leitura (SALAS, HISTORICO, ESTATISTICAS, BUSCA), já validada. Com id de requisição o
+    // cliente casa a resposta com o pedido, então ela é montada no executor enquanto os próximos comandos
+    // seguem (listar as salas não segura as mensagens); sem id a resposta sai na ordem dos comandos, como antes
+    private void query(Supplier<Frame> query) {
+        int id = requestId;
+        if (id == 0) {
+            reply(query.get());
+            return;
+        }
+        metrics.commandPipelined();
+        server.execute(() -> {
+            try {
+                Frame frame = query.get();
+                if (frame != null) {
+                    sendFrame(Frame.reply(frame, id));
+                }
+            } catch (RuntimeException e) {
+                // Sem resposta o cliente esperaria por este id para sempre
+                System.err.println("Erro ao processar consulta: " + e);
+                sendError("Erro ao processar o comando.", id);
+            }
+        });
+    }
+
+    // Resposta ao comando em processamento: leva o id dele, se houver
+    private void reply(Frame frame) {
+        if (frame != null) {
+            sendFrame(Frame.reply(frame, requestId));
         }
     }
 
     private void sendError(String message) {
-        out.println("ERRO:" + message);
+        sendError(message, requestId);
+    }
+
+    private void sendError(String message, int id) {
+        sendFrame(Frame.reply(Frame.of(Reply.ERRO, message), id));
+    }
+
+    // ERRO com o tempo de espera; o cliente pode reenviar depois de retry-after milissegundos
+    private void sendThrottled(String reason, long waitNanos) {
+        long retryAfterMs = Math.max(1, (waitNanos + 999_999) / 1_000_000);
+        sendError(reason + " Tente novamente em " + retryAfterMs + " ms (retry-after=" + retryAfterMs + ").");
     }
 
     private void sendSuccess(String message) {
-        out.println("SUCESSO:" + message);
+        reply(Frame.of(Reply.SUCESSO, message));
     }
 
     private void sendInfo(String message) {
-        out.println("INFO:" + message);
+        sendFrame(Frame.of(Reply.INFO, message));
     }
 
+    // Fim da conexão e da sessão: DESCONECTAR, cliente lento, encerramento do servidor
     public void disconnect() {
-        connected = false;
-
-        if (currentRoom != null) {
-            server.exitRoom(this, currentRoom);
+        if (markClosed(null)) {
+            release();
         }
+    }
+
+    // Depois de markClosed: libera a fila, as salas, o nome e o socket
+    private void release() {
+        outbound.close();
+        metrics.connectionClosed();
+
+        server.exitAllRooms(this);
 
         if (username != null) {
+            if (resumeToken != null) {
+                server.getSessions().unregister(resumeToken, this);
+            }
             server.removeClient(this);
             System.out.println("Usuario " + username + " desconectado");
         }
+        closeConnection();
+    }
+
+    // A conexão caiu (leitura falhou ou fim do stream). Com retomada ativada, a sessão é estacionada
+    public void connectionLost() {
+        if (resumeToken == null || !park()) {
+            disconnect();
+        }
+    }
+
+    // Decide uma única vez quem fecha a conexão: disconnect (parkedFrames null) ou park
+    private synchronized boolean markClosed(MissedFrames parkedFrames) {
+        if (!connected) {
+            return false;
+        }
+        missed = parkedFrames; // antes de connected = false, para nenhum frame se perder no meio
+        connected = false;
+        return true;
+    }
+
+    // Fecha a conexão mas mantém a sessão: continua nas salas e com o nome reservado, e o que for
+    // enviado (mais o que ainda estava na fila de saída) fica guardado até RETOMAR ou o fim da carência
+    private boolean park() {
+        MissedFrames parkedFrames = new MissedFrames(server.getConfig().getResumeBuffer());
+        if (!markClosed(parkedFrames)) {
+            return false;
+        }
+        List<Frame> pending = outbound.drainAndClose();
+        // Marcadores e o token desta conexão não valem para a próxima
+        pending.removeIf(f -> f.isProtocolSwitch() || f.isDeflateStart() || f.getType() == Reply.SESSAO);
+        parkedFrames.addOlder(pending);
+        metrics.connectionClosed();
+        metrics.sessionParked();
+        server.getSessions().park(resumeToken, this);
+        System.out.println("Usuario " + username + " perdeu a conexão (sessão guardada por "
+                + server.getSessions().getGraceSeconds() + " s)");
+        closeConnection();
+        return true;
+    }
+
+    private void startLivenessChecks() {
+        ServerConfig config = server.getConfig();
+        long first = Math.min(seconds(config.getHeartbeatSeconds()), seconds(config.getIdleTimeoutSeconds()));
+        if (first != Long.MAX_VALUE) {
+            server.getTimers().schedule(this::checkLiveness, first);
+        }
+    }
+
+    // 0 (desativado) vira "nunca"
+    private static long seconds(int value) {
+        return value > 0 ? TimeUnit.SECONDS.toNanos(value) : Long.MAX_VALUE;
+    }
+
+    // Na thread da roda: decide, reagenda para o próximo prazo e volta. Encerrar a conexão fecha sockets e
+    // avisa as salas, então vai para o executor. Conexão em silêncio recebe PING; qualquer dado que chegar
+    // depois dele (o PONG, ou um comando) mostra que o cliente está vivo.
+    private void checkLiveness() {
+        if (!connected) {
+            return;
+        }
+        ServerConfig config = server.getConfig();
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+
+        long idleTimeout = seconds(config.getIdleTimeoutSeconds());
+        if (idleTimeout != Long.MAX_VALUE) {
+            long idle = now - lastCommandNanos;
+            if (idle >= idleTimeout) {
+                metrics.connectionReaped(false);
+                sendInfo("Desconectado por inatividade.");
+                server.execute(this::disconnect);
+                return;
+            }
+            next = idleTimeout - idle;
+        }
+
+        long heartbeat = seconds(config.getHeartbeatSeconds());
+        if (heartbeat != Long.MAX_VALUE) {
+            long pongTimeout = seconds(config.getHeartbeatTimeoutSeconds());
+            long lastRead = lastReadNanos;
+            if (pingSentNanos != 0 && lastRead - pingSentNanos <= 0) {
+                long waited = now - pingSentNanos;
+                if (waited >= pongTimeout) {
+                    metrics.connectionReaped(true);
+                    server.execute(this::reap);
+                    return;
+                }
+                next = Math.min(next, pongTimeout - waited);
+            } else if (now - lastRead >= heartbeat) {
+                pingSentNanos = now;
+                metrics.pingSent();
+                sendFrame(PING);
+                next = Math.min(next, pongTimeout);
+            } else {
+                pingSentNanos = 0;
+                next = Math.min(next, heartbeat - (now - lastRead));
+            }
+        }
+        server.getTimers().schedule(this::checkLiveness, next);
+    }
+
+    // Peer que não responde (conexão meio aberta): o socket é fechado antes de tudo para soltar um writer
+    // preso numa escrita que nunca termina; com retomada ativada a sessão fica estacionada, como numa queda
+    private void reap() {
+        System.out.println("Sem resposta ao PING: " + (username != null ? username : "(sem login)"));
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        connectionLost();
+    }
+
+    // Chamado pela expiração na roda de timers quando ninguém retomou a sessão a tempo
+    public void endParkedSession() {
+        missed = null;
+        metrics.sessionExpired();
+        server.exitAllRooms(this);
+        server.removeClient(this);
+        System.out.println("Sessão de " + username + " expirada");
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            return;
+        }
 
         try {
             if (in != null) in.close();
@@ -268,17 +1061,34 @@ public class ClientHandler implements Runnable{
         }
     }
 
+    // Conta as escritas que chegam de fato ao socket (o BufferedOutputStream junta as pequenas)
+    private static final class SocketWriteCounter extends FilterOutputStream {
+        private final Metrics metrics;
+
+        SocketWriteCounter(OutputStream out, Metrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.socketWrite();
+            metrics.addBytesOut(len);
+        }
+    }
+
     // Getters
     public String getUsername() {
         return username;
     }
 
-    public String getCurrentRoom() {
-        return currentRoom;
+    public int getUserId() {
+        return userId;
     }
 
-    public void setCurrentRoom(String roomName){
-        this.currentRoom = roomName;
+    public Subscriptions getSubscriptions() {
+        return subscriptions;
     }
 
     public boolean isAdmin() {
@@ -289,8 +1099,25 @@ public class ClientHandler implements Runnable{
         return connected;
     }
 
+    // Conectado ou estacionado (aí o frame fica guardado para o RETOMAR)
+    public boolean acceptsFrames() {
+        return connected || missed != null;
+    }
+
     public Socket getSocket() {
         return socket;
     }
 
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    public ChatServer getServer() {
+        return server;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
 }
@@ -0,0 +1,555 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Modo cluster: vários ChatServer dividem salas e nomes de usuário por rendezvous hashing.
+// Todos os nós calculam o mesmo dono para cada sala e cada nome a partir da lista de nós:
+// - o dono de um nome garante que ele é único no cluster (CLAIM/RELEASE);
+// - o dono de uma sala decide a criação e o encerramento e avisa todos os nós;
+// - mensagens de chat vão ao dono da sala (PUBLISH), que entrega aos próprios clientes e repassa
+//   (DELIVER) só aos nós com membros na sala (INTEREST). Cada nó faz o fan-out para os seus clientes.
+//   Os avisos da sala (entrada, saída, expulsão) seguem o mesmo caminho (ANNOUNCE/NOTICE), mas o nó de
+//   origem já os entregou aos próprios clientes;
+// - cada nó informa ao dono quantos membros tem na sala (INTEREST) e o dono publica o total (COUNT),
+//   que é o que LISTAR_SALAS mostra em qualquer nó. A lista de nomes (USUARIOS) é pedida a todos (USERS).
+// Protocolo entre nós: linhas UTF-8 com campos separados por tab, o texto livre sempre por último.
+// Tab, CR, LF e '\\' dentro dos campos (texto de chat, nomes) vão escapados: um cliente não consegue
+// terminar a linha no meio de uma mensagem e forjar um comando entre nós.
+// Cada nó abre uma conexão de saída (PeerLink) para cada par e recebe as dos pares no seu ServerSocket.
+public class Cluster {
+    private static final long REQUEST_TIMEOUT_MS = 2000;
+
+    private final ChatServer server;
+    private final RoomManager rooms;
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> nodes;
+    private final Map<String, PeerLink> links = new HashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    // Estado do que este nó é dono
+    private final ConcurrentHashMap<String, String> claims = new ConcurrentHashMap<>();          // nome -> nó
+    // sala -> membros de cada nó que tem membros nela
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> interest = new ConcurrentHashMap<>();
+    // Último INTEREST enviado por este nó para cada sala de outro dono
+    private final Map<String, Integer> announced = new HashMap<>();
+    private ServerSocket listener;
+    private volatile boolean running;
+
+    public Cluster(ChatServer server, RoomManager rooms, String nodeId, Map<String, InetSocketAddress> nodes) {
+        this.server = server;
+        this.rooms = rooms;
+        this.nodeId = nodeId;
+        this.nodes = nodes;
+        for (Map.Entry<String, InetSocketAddress> node : nodes.entrySet()) {
+            String peer = node.getKey();
+            if (!peer.equals(nodeId)) {
+                links.put(peer, new PeerLink(peer, node.getValue(), () -> handshake(peer)));
+            }
+        }
+    }
+
+    public void start() throws IOException {
+        InetSocketAddress own = nodes.get(nodeId);
+        listener = new ServerSocket();
+        listener.bind(new InetSocketAddress(own.getPort()));
+        running = true;
+
+        Thread acceptor = new Thread(this::acceptPeers, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links.values()) {
+            link.start();
+        }
+        System.out.println("Cluster: nó " + nodeId + " ouvindo pares na porta " + own.getPort()
+                + " (" + nodes.size() + " nós)");
+    }
+
+    public void stop() {
+        running = false;
+        for (PeerLink link : links.values()) {
+            link.stop();
+        }
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cluster: erro ao fechar: " + e.getMessage());
+        }
+    }
+
+    // Rendezvous hashing: o nó com maior pontuação para a chave é o dono; só muda para as chaves
+    // do nó que entra ou sai da lista
+    public String ownerOf(String key) {
+        String best = null;
+        long bestScore = 0;
+        for (String node : nodes.keySet()) {
+            long score = mix(((long) key.hashCode() << 32) ^ (node.hashCode() & 0xFFFFFFFFL));
+            if (best == null || Long.compareUnsigned(score, bestScore) > 0
+                    || (score == bestScore && node.compareTo(best) < 0)) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private String roomOwner(String room) {
+        return ownerOf("sala:" + room);
+    }
+
+    private String userOwner(String username) {
+        return ownerOf("usuario:" + username);
+    }
+
+    // --- Operações chamadas pelo ChatServer ---
+
+    // Assíncrono: chamado no login, que no modo nio roda no event loop
+    public CompletableFuture<Boolean> claimUsername(String username) {
+        String owner = userOwner(username);
+        if (owner.equals(nodeId)) {
+            return CompletableFuture.completedFuture(claim(username, nodeId));
+        }
+        return request(owner, "CLAIM", username).thenApply("OK"::equals);
+    }
+
+    public void releaseUsername(String username) {
+        String owner = userOwner(username);
+        if (owner.equals(nodeId)) {
+            claims.remove(username, nodeId);
+        } else {
+            send(owner, line("RELEASE", username));
+        }
+    }
+
+    public boolean createRoom(String room) {
+        String owner = roomOwner(room);
+        if (owner.equals(nodeId)) {
+            return createOwnedRoom(room);
+        }
+        return "OK".equals(request(owner, "CREATE", room).join());
+    }
+
+    public boolean closeRoom(String room) {
+        String owner = roomOwner(room);
+        if (owner.equals(nodeId)) {
+            return closeOwnedRoom(room);
+        }
+        return "OK".equals(request(owner, "CLOSE", room).join());
+    }
+
+    // Chamado depois de cada entrada/saída local: informa ao dono quantos membros este nó tem na sala
+    // (com zero ele deixa de receber as mensagens dela); o dono publica o novo total
+    public void membershipChanged(String roomName) {
+        String owner = roomOwner(roomName);
+        if (owner.equals(nodeId)) {
+            publishCount(roomName); // o dono sempre entrega aos próprios clientes
+            return;
+        }
+        synchronized (announced) {
+            // Lido dentro do lock: o último a anunciar sempre vê o estado mais recente
+            Room room = rooms.getRoom(roomName);
+            int members = room != null ? room.getUserCount() : 0;
+            Integer last = announced.get(roomName);
+            if (last != null ? last == members : members == 0) {
+                return;
+            }
+            if (members > 0) {
+                announced.put(roomName, members);
+            } else {
+                announced.remove(roomName);
+            }
+            send(owner, line("INTEREST", roomName, Integer.toString(members)));
+        }
+    }
+
+    // Aviso da sala já entregue aos clientes deste nó: vai aos membros conectados aos outros
+    public void announce(String roomName, String message) {
+        String owner = roomOwner(roomName);
+        if (owner.equals(nodeId)) {
+            notify(roomName, message, null);
+        } else {
+            send(owner, line("ANNOUNCE", roomName, message));
+        }
+    }
+
+    // Membros da sala conectados a cada um dos outros nós ("nome|papel,..."); quem não respondeu fica de fora
+    public List<String> usersInRoom(String roomName) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String node : links.keySet()) {
+            replies.add(request(node, "USERS", roomName));
+        }
+        List<String> users = new ArrayList<>();
+        for (CompletableFuture<String> reply : replies) {
+            String list = reply.join();
+            if (list != null) {
+                users.add(list);
+            }
+        }
+        return users;
+    }
+
+    public void publish(int roomId, ClientHandler sender, String message) {
+        String roomName = SymbolTable.ROOMS.name(roomId);
+        String owner = roomOwner(roomName);
+        if (owner.equals(nodeId)) {
+            rooms.broadcastChatMessage(roomId, message, sender);
+            forward(roomName, sender.getUsername(), message);
+        } else {
+            send(owner, line("PUBLISH", roomName, sender.getUsername(), message));
+        }
+    }
+
+    // O usuário pode estar conectado a outro nó: cada nó tenta expulsar localmente e responde se
+    // ele estava lá. true só se algum nó expulsou
+    public boolean kickRemote(String roomName, String username) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String node : links.keySet()) {
+            replies.add(request(node, "KICK", roomName, username));
+        }
+        boolean kicked = false;
+        for (CompletableFuture<String> reply : replies) {
+            kicked |= "OK".equals(reply.join());
+        }
+        return kicked;
+    }
+
+    // --- Lado do dono ---
+
+    private boolean claim(String username, String node) {
+        String current = claims.putIfAbsent(username, node);
+        return current == null || current.equals(node) && !node.equals(nodeId);
+    }
+
+    private boolean createOwnedRoom(String room) {
+        if (!rooms.createRoom(room)) {
+            return false;
+        }
+        sendToAll(line("ROOM_CREATED", room));
+        return true;
+    }
+
+    private boolean closeOwnedRoom(String room) {
+        if (!rooms.endRoom(room)) {
+            return false;
+        }
+        interest.remove(room);
+        sendToAll(line("ROOM_CLOSED", room));
+        return true;
+    }
+
+    private void forward(String roomName, String username, String message) {
+        Map<String, Integer> targets = interest.get(roomName);
+        if (targets == null) {
+            return;
+        }
+        String delivery = line("DELIVER", roomName, username, message);
+        for (String node : targets.keySet()) {
+            send(node, delivery);
+        }
+    }
+
+    // Aviso para os nós com membros na sala, menos o de origem (que já o entregou)
+    private void notify(String roomName, String message, String origin) {
+        Map<String, Integer> targets = interest.get(roomName);
+        if (targets == null) {
+            return;
+        }
+        String notice = line("NOTICE", roomName, message);
+        for (String node : targets.keySet()) {
+            if (!node.equals(origin)) {
+                send(node, notice);
+            }
+        }
+    }
+
+    // Total de membros da sala (os deste nó mais os informados pelos outros), para todos os nós. Dentro do
+    // lock: o último a publicar sempre vê as contagens mais recentes
+    private void publishCount(String roomName) {
+        synchronized (interest) {
+            Room room = rooms.getRoom(roomName);
+            if (room == null) {
+                return;
+            }
+            int total = room.getUserCount();
+            Map<String, Integer> remote = interest.get(roomName);
+            if (remote != null) {
+                for (int members : remote.values()) {
+                    total += members;
+                }
+            }
+            rooms.setClusterUserCount(roomName, total);
+            sendToAll(line("COUNT", roomName, Integer.toString(total)));
+        }
+    }
+
+    // --- Comunicação ---
+
+    private List<String> handshake(String peer) {
+        List<String> lines = new ArrayList<>();
+        lines.add(line("HELLO", nodeId));
+        // Nomes em uso aqui cujo dono é o par (id 0: a resposta é ignorada)
+        for (String username : server.getUsernames()) {
+            if (userOwner(username).equals(peer)) {
+                lines.add(line("CLAIM", "0", username));
+            }
+        }
+        // O par pode ter acabado de (re)iniciar: reenvia as salas deste nó e o interesse nas salas dele
+        for (Room room : rooms.getRooms()) {
+            String owner = roomOwner(room.getName());
+            if (owner.equals(nodeId)) {
+                lines.add(line("ROOM_CREATED", room.getName()));
+                lines.add(line("COUNT", room.getName(), Integer.toString(room.getTotalUserCount())));
+            } else if (owner.equals(peer) && room.getUserCount() > 0) {
+                lines.add(line("INTEREST", room.getName(), Integer.toString(room.getUserCount())));
+            }
+        }
+        return lines;
+    }
+
+    // Resposta do nó, ou null se a mensagem não saiu ou se não houve resposta em REQUEST_TIMEOUT_MS.
+    // Quem pode esperar (operações de admin, já fora da thread de leitura) usa join()
+    private CompletableFuture<String> request(String node, String type, String... arguments) {
+        long id = nextRequestId.incrementAndGet();
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        pending.put(id, reply);
+        String[] fields = new String[arguments.length + 2];
+        fields[0] = type;
+        fields[1] = Long.toString(id);
+        System.arraycopy(arguments, 0, fields, 2, arguments.length);
+        if (!send(node, line(fields))) {
+            pending.remove(id);
+            reply.complete(null);
+            return reply;
+        }
+        reply.completeOnTimeout(null, REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        return reply.whenComplete((result, e) -> {
+            pending.remove(id);
+            if (result == null) {
+                System.err.println("Cluster: sem resposta do nó " + node + " para " + type);
+            }
+        });
+    }
+
+    private boolean send(String node, String line) {
+        PeerLink link = links.get(node);
+        if (link == null || !link.send(line)) {
+            System.err.println("Cluster: mensagem para o nó " + node + " descartada");
+            return false;
+        }
+        return true;
+    }
+
+    private void sendToAll(String line) {
+        for (String node : links.keySet()) {
+            send(node, line);
+        }
+    }
+
+    private static String line(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            escape(sb, fields[i]);
+        }
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder sb, String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = field.charAt(++i);
+            sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        }
+        return sb.toString();
+    }
+
+    // Campos de uma linha recebida, já sem os escapes
+    private static String[] fields(String line, int limit) {
+        String[] f = line.split("\t", limit);
+        for (int i = 0; i < f.length; i++) {
+            f[i] = unescape(f[i]);
+        }
+        return f;
+    }
+
+    private void acceptPeers() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> readPeer(socket), "cluster-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Cluster: erro ao aceitar par: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readPeer(Socket socket) {
+        String peer = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (peer == null) {
+                    String[] hello = fields(line, 2);
+                    if (!hello[0].equals("HELLO") || hello.length < 2 || !links.containsKey(hello[1])) {
+                        System.err.println("Cluster: conexão recusada de " + socket.getRemoteSocketAddress());
+                        return;
+                    }
+                    peer = hello[1];
+                    continue;
+                }
+                handle(peer, line);
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Cluster: leitura do nó " + peer + " interrompida: " + e.getMessage());
+            }
+        } finally {
+            if (peer != null) {
+                peerLeft(peer);
+            }
+        }
+    }
+
+    private void handle(String peer, String line) {
+        String[] f = fields(line, 4);
+        try {
+            switch (f[0]) {
+                case "CLAIM":
+                    send(peer, line("REPLY", f[1], claim(f[2], peer) ? "OK" : "TAKEN"));
+                    break;
+                case "RELEASE":
+                    claims.remove(f[1], peer);
+                    break;
+                case "CREATE":
+                    send(peer, line("REPLY", f[1], createOwnedRoom(f[2]) ? "OK" : "EXISTS"));
+                    break;
+                case "CLOSE":
+                    send(peer, line("REPLY", f[1], closeOwnedRoom(f[2]) ? "OK" : "MISSING"));
+                    break;
+                case "REPLY": {
+                    CompletableFuture<String> reply = pending.get(Long.parseLong(f[1]));
+                    if (reply != null) {
+                        reply.complete(f[2]);
+                    }
+                    break;
+                }
+                case "ROOM_CREATED":
+                    rooms.createRoom(f[1]); // gravado no log como o encerramento, para a recuperação ver os dois
+                    break;
+                case "ROOM_CLOSED":
+                    rooms.endRoom(f[1]);
+                    break;
+                case "INTEREST": {
+                    int members = Integer.parseInt(f[2]);
+                    if (members > 0) {
+                        interest.computeIfAbsent(f[1], r -> new ConcurrentHashMap<>()).put(peer, members);
+                    } else {
+                        Map<String, Integer> nodesInRoom = interest.get(f[1]);
+                        if (nodesInRoom != null) {
+                            nodesInRoom.remove(peer);
+                        }
+                    }
+                    publishCount(f[1]);
+                    break;
+                }
+                case "COUNT":
+                    rooms.setClusterUserCount(f[1], Integer.parseInt(f[2]));
+                    break;
+                case "ANNOUNCE":
+                    if (rooms.getRoom(f[1]) != null) {
+                        rooms.broadcastToRoom(f[1], f[2], null);
+                        notify(f[1], f[2], peer);
+                    }
+                    break;
+                case "NOTICE":
+                    rooms.broadcastToRoom(f[1], f[2], null);
+                    break;
+                case "USERS":
+                    send(peer, line("REPLY", f[1], rooms.getUsersInRoom(rooms.getRoomId(f[2]))));
+                    break;
+                case "PUBLISH":
+                    if (rooms.getRoom(f[1]) != null) {
+                        rooms.deliverChatMessage(f[1], f[2], f.length > 3 ? f[3] : "");
+                        forward(f[1], f[2], f.length > 3 ? f[3] : "");
+                    }
+                    break;
+                case "DELIVER":
+                    rooms.deliverChatMessage(f[1], f[2], f.length > 3 ? f[3] : "");
+                    break;
+                case "KICK": {
+                    boolean kicked = rooms.kickUser(f[2], f[3]);
+                    if (kicked) {
+                        membershipChanged(f[2]);
+                        announce(f[2], Room.leftNotice(f[3]));
+                    }
+                    send(peer, line("REPLY", f[1], kicked ? "OK" : "MISSING"));
+                    break;
+                }
+                default:
+                    System.err.println("Cluster: mensagem desconhecida do nó " + peer + ": " + f[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Cluster: mensagem inválida do nó " + peer + ": " + line);
+        }
+    }
+
+    // O par caiu: os nomes e o interesse dele deixam de valer até ele voltar
+    private void peerLeft(String peer) {
+        claims.values().removeIf(peer::equals);
+        for (Map.Entry<String, ConcurrentHashMap<String, Integer>> room : interest.entrySet()) {
+            if (room.getValue().remove(peer) != null) {
+                publishCount(room.getKey());
+            }
+        }
+        System.out.println("Cluster: nó " + peer + " desconectado");
+    }
+}
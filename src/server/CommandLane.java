@@ -0,0 +1,66 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+// Comandos de uma conexão, na ordem em que chegaram. Com a fila vazia o comando roda direto na thread de
+// leitura (ou no event loop), como sempre. Um comando pesado (as operações de admin) vai para o executor,
+// e o que chegar enquanto ele roda espera na fila, atrás dele: a leitura continua (PONG, novos comandos),
+// mas a ordem dos comandos da conexão, e portanto a das suas mensagens em cada sala, não muda. A ordem
+// entre remetentes diferentes numa sala é a da própria Room (ver Room.order).
+public class CommandLane {
+    private final Executor executor;
+    private final int limit;
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private boolean busy; // a fila está sendo esvaziada no executor
+
+    public CommandLane(Executor executor, int limit) {
+        this.executor = executor;
+        this.limit = limit;
+    }
+
+    // Só a thread de leitura da conexão chama. false: fila cheia, o comando não foi aceito
+    public boolean submit(Runnable command, boolean heavy) {
+        synchronized (this) {
+            if (busy || heavy) {
+                if (queue.size() >= limit) {
+                    return false;
+                }
+                queue.add(command);
+                if (busy) {
+                    return true;
+                }
+                busy = true;
+            }
+        }
+        if (heavy) {
+            executor.execute(this::drain);
+        } else {
+            command.run();
+        }
+        return true;
+    }
+
+    // Fila esperando atrás de um comando pesado
+    public synchronized boolean isBusy() {
+        return busy;
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    busy = false;
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                System.err.println("Erro ao processar comando: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Saída do writer bloqueante depois que o cliente pede deflate: guarda os bytes até o flush (ou até
+// maxBytes) e os escreve como um único bloco comprimido, com um Deflater emprestado do pool.
+public class CompressedOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final DeflaterPool pool;
+    private final int maxBytes;
+    private byte[] buffer;
+    private int count;
+
+    public CompressedOutputStream(OutputStream out, DeflaterPool pool, int maxBytes) {
+        this.out = out;
+        this.pool = pool;
+        this.maxBytes = maxBytes;
+        this.buffer = new byte[Math.min(maxBytes, 4096)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (count + len > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, count + len)];
+            System.arraycopy(buffer, 0, bigger, 0, count);
+            buffer = bigger;
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        if (count >= maxBytes) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        out.write(pool.compressBlock(buffer, 0, count));
+        count = 0;
+        if (buffer.length > maxBytes) {
+            buffer = new byte[maxBytes]; // volta ao tamanho normal depois de um frame grande
+        }
+    }
+
+    // Fechado junto com a conexão: o que não foi descarregado já não tem para quem ir
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import protocol.BinaryCodec;
+import protocol.Compression;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// Compressores compartilhados pelas conexões com deflate. Cada escrita vira um bloco independente
+// (sem histórico entre blocos, só o dicionário de Compression), então nenhuma conexão precisa manter
+// um Deflater (centenas de KB de memória nativa) entre uma escrita e outra: pega um daqui e devolve.
+public class DeflaterPool {
+    private static final int MIN_SCRATCH = 16 * 1024;
+
+    private final int level;
+    private final int maxIdle;
+    private final Metrics metrics;
+    private final ConcurrentLinkedQueue<Entry> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private static final class Entry {
+        final Deflater deflater;
+        byte[] scratch = new byte[MIN_SCRATCH];
+
+        Entry(int level) {
+            deflater = new Deflater(level, true);
+        }
+    }
+
+    public DeflaterPool(int level, int maxIdle, Metrics metrics) {
+        this.level = level;
+        this.maxIdle = maxIdle;
+        this.metrics = metrics;
+    }
+
+    // [varint tamanho][deflate] com o conteúdo de todos os buffers, na ordem (as posições não mudam)
+    public byte[] compressBlock(Iterable<ByteBuffer> buffers) {
+        Entry entry = borrow();
+        try {
+            Deflater deflater = entry.deflater;
+            int raw = 0;
+            int n = 0;
+            for (ByteBuffer buffer : buffers) {
+                ByteBuffer input = buffer.duplicate();
+                raw += input.remaining();
+                deflater.setInput(input);
+                while (!deflater.needsInput()) {
+                    n = deflateInto(entry, n);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                n = deflateInto(entry, n);
+            }
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream(n + 5);
+            BinaryCodec.writeVarint(block, n);
+            block.write(entry.scratch, 0, n);
+            metrics.recordCompression(raw, block.size());
+            return block.toByteArray();
+        } finally {
+            release(entry);
+        }
+    }
+
+    public byte[] compressBlock(byte[] data, int offset, int length) {
+        return compressBlock(List.of(ByteBuffer.wrap(data, offset, length)));
+    }
+
+    private int deflateInto(Entry entry, int n) {
+        if (n == entry.scratch.length) {
+            byte[] bigger = new byte[entry.scratch.length * 2];
+            System.arraycopy(entry.scratch, 0, bigger, 0, n);
+            entry.scratch = bigger;
+        }
+        return n + entry.deflater.deflate(entry.scratch, n, entry.scratch.length - n);
+    }
+
+    private Entry borrow() {
+        Entry entry = idle.poll();
+        if (entry == null) {
+            entry = new Entry(level);
+        } else {
+            idleCount.decrementAndGet();
+        }
+        entry.deflater.setDictionary(Compression.DICTIONARY);
+        return entry;
+    }
+
+    private void release(Entry entry) {
+        entry.deflater.reset();
+        if (entry.scratch.length > MIN_SCRATCH * 4) {
+            entry.scratch = new byte[MIN_SCRATCH]; // não guarda o buffer de um bloco excepcionalmente grande
+        }
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.add(entry);
+        } else {
+            idleCount.decrementAndGet();
+            entry.deflater.end();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package server;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Segmento selado gravado por MemorySearchSegment.writeTo e lido mapeado em memória: o heap guarda só o
+// objeto, e as páginas do arquivo ficam com o sistema operacional. Termos em ordem, procurados por busca
+// binária; somente leitura, então as buscas não precisam de lock (cada leitura usa posições absolutas).
+public class FileSearchSegment implements SearchSegment {
+    static final int MAGIC = 0x43534958; // "CSIX"
+    static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8;
+    static final int DOC_BYTES = 4 + 4 + 8 + 4;  // sala, usuário, horário, posição do texto
+    static final int TERM_BYTES = 4 + 4 + 4;     // posição do termo, posição da lista, tamanho da lista
+
+    private final Path file;
+    private final MappedByteBuffer data;
+    private final int docCount;
+    private final int termCount;
+    private final long minTime;
+    private final long maxTime;
+
+    public FileSearchSegment(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.getInt(0) != MAGIC) {
+            throw new IOException("arquivo de índice inválido: " + file);
+        }
+        this.docCount = data.getInt(4);
+        this.termCount = data.getInt(8);
+        this.minTime = data.getLong(12);
+        this.maxTime = data.getLong(20);
+    }
+
+    @Override
+    public int[] docs(String term, boolean prefix) {
+        int first = lowerBound(term);
+        if (!prefix) {
+            return first < termCount && term(first).equals(term) ? postings(first) : SearchIndex.NO_DOCS;
+        }
+        int last = first;
+        while (last < termCount && term(last).startsWith(term)) {
+            last++;
+        }
+        if (last - first == 1) {
+            return postings(first);
+        }
+        int total = 0;
+        for (int t = first; t < last; t++) {
+            total += data.getInt(termEntry(t) + 8);
+        }
+        int[] docs = new int[total];
+        int n = 0;
+        for (int t = first; t < last; t++) {
+            int[] part = postings(t);
+            System.arraycopy(part, 0, docs, n, part.length);
+            n += part.length;
+        }
+        return SearchIndex.sortedUnique(docs);
+    }
+
+    // Primeiro termo >= term
+    private int lowerBound(String term) {
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (term(mid).compareTo(term) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int termEntry(int t) {
+        return HEADER_BYTES + DOC_BYTES * docCount + TERM_BYTES * t;
+    }
+
+    private String term(int t) {
+        return string(data.getInt(termEntry(t)));
+    }
+
+    private int[] postings(int t) {
+        int entry = termEntry(t);
+        int position = data.getInt(entry + 4);
+        int[] docs = new int[data.getInt(entry + 8)];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = data.getInt(position + 4 * i);
+        }
+        return docs;
+    }
+
+    private String string(int position) {
+        int length = data.getInt(position);
+        byte[] bytes = new byte[length];
+        data.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int docEntry(int doc) {
+        return HEADER_BYTES + DOC_BYTES * doc;
+    }
+
+    @Override
+    public int room(int doc) {
+        return data.getInt(docEntry(doc));
+    }
+
+    @Override
+    public int user(int doc) {
+        return data.getInt(docEntry(doc) + 4);
+    }
+
+    @Override
+    public long time(int doc) {
+        return data.getLong(docEntry(doc) + 8);
+    }
+
+    @Override
+    public String text(int doc) {
+        return string(data.getInt(docEntry(doc) + 16));
+    }
+
+    @Override
+    public int size() {
+        return docCount;
+    }
+
+    @Override
+    public long getMinTime() {
+        return minTime;
+    }
+
+    @Override
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    // O mapeamento continua válido até o coletor liberar o buffer; no Linux o arquivo some já
+    @Override
+    public void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Erro ao apagar segmento do índice de busca: " + e.getMessage());
+        }
+    }
+}
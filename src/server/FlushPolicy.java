@@ -0,0 +1,54 @@
+package server;
+
+// Decide quando o writer de uma conexão descarrega no socket o que já acumulou. Frames de chat
+// enfileirados dentro de uma janela curta (ou até um limite de bytes) saem numa única escrita;
+// respostas de controle (SUCESSO, ERRO, ...) encerram a janela e são escritas na hora.
+// Estado de uma conexão só: usado apenas pelo writer dela.
+public class FlushPolicy {
+    private final long windowNanos; // 0: sem janela, escreve assim que a fila esvazia
+    private final int maxBytes;
+    private long pendingBytes;
+    private boolean urgent;
+    private long windowStart;
+
+    public FlushPolicy(long windowNanos, int maxBytes) {
+        this.windowNanos = windowNanos;
+        this.maxBytes = maxBytes;
+    }
+
+    // droppable: o frame original é de chat (os DEFINE_* que o acompanham não contam como controle)
+    public void written(int bytes, boolean droppable) {
+        if (pendingBytes == 0) {
+            windowStart = System.nanoTime();
+        }
+        pendingBytes += bytes;
+        if (!droppable) {
+            urgent = true;
+        }
+    }
+
+    public boolean hasPending() {
+        return pendingBytes > 0;
+    }
+
+    public boolean isFull() {
+        return pendingBytes >= maxBytes;
+    }
+
+    // Com a fila vazia: quanto ainda vale esperar por mais frames (0 = escrever já)
+    public long waitNanos() {
+        if (urgent || windowNanos == 0 || isFull()) {
+            return 0;
+        }
+        return Math.max(0, windowStart + windowNanos - System.nanoTime());
+    }
+
+    public void flushed() {
+        pendingBytes = 0;
+        urgent = false;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+}
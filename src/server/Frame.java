@@ -0,0 +1,265 @@
+package server;
+
+import protocol.BinaryCodec;
+import protocol.Command;
+import protocol.Reply;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Mensagem do servidor. Cada codificação (texto ou binária) é gerada uma única vez, na primeira
+// vez que algum destinatário precisa dela, e os bytes são compartilhados por todos os destinatários.
+// Usuário e sala vão como ids no protocolo binário; o nome de cada um é lido da SymbolTable uma vez, ao
+// criar o frame, e guardado junto (a mesma String da tabela), porque o id pode ser reaproveitado por
+// outro nome enquanto o frame ainda está numa fila ou no histórico.
+// Uma resposta a um comando com id de requisição é uma cópia marcada com o id (ver reply).
+public final class Frame {
+    public enum Kind {
+        CHAT,    // mensagens de chat: podem ser descartadas para clientes lentos
+        CONTROL, // respostas e avisos do servidor
+        BATCH,   // vários frames entregues juntos, numa única escrita
+        SWITCH,  // marcador: a partir daqui o writer usa o protocolo binário
+        DEFLATE  // marcador: a partir daqui o writer comprime o que envia
+    }
+
+    // Colocado na fila logo após a resposta de login, para que a troca de protocolo respeite a ordem
+    public static final Frame SWITCH_TO_BINARY = new Frame(Kind.SWITCH, null, null, 0, 0);
+    // Também logo após a resposta de login (e após SWITCH_TO_BINARY, se houver)
+    public static final Frame START_DEFLATE = new Frame(Kind.DEFLATE, null, null, 0, 0);
+
+    private List<Frame> parts = Collections.emptyList(); // só para BATCH
+
+    private final Kind kind;
+    private final Reply type;
+    private final String text;
+    private final int userId;
+    private final int roomId;
+    private String username; // só MSG
+    private String roomName; // MSG e ECO
+    private int requestId; // 0: não é resposta a um comando com id
+    // Caches preenchidos sob demanda; uma corrida só faz a mesma codificação duas vezes
+    private volatile byte[] textBytes;
+    private volatile byte[] binaryBytes;
+
+    private Frame(Kind kind, Reply type, String text, int userId, int roomId) {
+        this.kind = kind;
+        this.type = type;
+        this.text = text;
+        this.userId = userId;
+        this.roomId = roomId;
+    }
+
+    public static Frame of(Reply type, String text) {
+        return new Frame(Kind.CONTROL, type, text, 0, 0);
+    }
+
+    // Aceita uma linha já montada no formato "TIPO:texto"
+    public static Frame control(String line) {
+        int colon = line.indexOf(':');
+        Reply type = colon > 0 ? Reply.fromText(line.substring(0, colon)) : null;
+        if (type == null) {
+            // Linha sem tipo conhecido: vai como está no texto e como INFO no binário
+            return new Frame(Kind.CONTROL, null, line, 0, 0);
+        }
+        return of(type, line.substring(colon + 1));
+    }
+
+    // MSG:usuario:sala:conteudo
+    public static Frame chat(int userId, int roomId, String message) {
+        Frame frame = new Frame(Kind.CHAT, Reply.MSG, message, userId, roomId);
+        frame.username = SymbolTable.USERS.name(userId);
+        frame.roomName = SymbolTable.ROOMS.name(roomId);
+        return frame;
+    }
+
+    // Eco da própria mensagem para quem enviou
+    public static Frame echo(int roomId, String message) {
+        Frame frame = new Frame(Kind.CHAT, Reply.ECO, message, 0, roomId);
+        frame.roomName = SymbolTable.ROOMS.name(roomId);
+        return frame;
+    }
+
+    public static Frame batch(List<Frame> frames) {
+        Frame batch = new Frame(Kind.BATCH, null, null, 0, 0);
+        batch.parts = frames;
+        return batch;
+    }
+
+    // Resposta ao comando com id de requisição: "#id:TIPO:texto" no texto, opcode com REQUEST_ID_FLAG e
+    // o id antes do payload no binário. Num lote só o primeiro frame leva o id (o lote sai numa escrita só).
+    // Sem id devolve o próprio frame; com id é uma cópia, porque frames como as páginas de SALAS são
+    // compartilhados entre conexões.
+    public static Frame reply(Frame frame, int requestId) {
+        if (requestId == 0 || frame == null || frame.kind == Kind.SWITCH || frame.kind == Kind.DEFLATE) {
+            return frame;
+        }
+        if (frame.kind == Kind.BATCH) {
+            if (frame.parts.isEmpty()) {
+                return frame;
+            }
+            List<Frame> parts = new ArrayList<>(frame.parts);
+            parts.set(0, reply(parts.get(0), requestId));
+            return batch(parts);
+        }
+        Frame tagged = new Frame(frame.kind, frame.type, frame.text, frame.userId, frame.roomId);
+        tagged.username = frame.username;
+        tagged.roomName = frame.roomName;
+        tagged.requestId = requestId;
+        return tagged;
+    }
+
+    // Apresenta um id ao cliente binário antes do primeiro frame que o usa (ou que o usa com outro nome)
+    public static Frame defineUser(int userId, String username) {
+        return new Frame(Kind.CONTROL, Reply.DEFINE_USUARIO, username, userId, 0);
+    }
+
+    public static Frame defineRoom(int roomId, String roomName) {
+        return new Frame(Kind.CONTROL, Reply.DEFINE_SALA, roomName, 0, roomId);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Reply getType() {
+        return type;
+    }
+
+    public boolean isDroppable() {
+        return kind == Kind.CHAT;
+    }
+
+    public boolean isProtocolSwitch() {
+        return kind == Kind.SWITCH;
+    }
+
+    public boolean isDeflateStart() {
+        return kind == Kind.DEFLATE;
+    }
+
+    public boolean isBatch() {
+        return kind == Kind.BATCH;
+    }
+
+    public List<Frame> getParts() {
+        return parts;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int length(boolean binary) {
+        return bytes(binary).length;
+    }
+
+    // Visão somente leitura com posição própria: vários canais podem escrever o mesmo Frame ao mesmo tempo
+    public ByteBuffer buffer(boolean binary) {
+        return ByteBuffer.wrap(bytes(binary)).asReadOnlyBuffer();
+    }
+
+    public void writeTo(OutputStream out, boolean binary) throws IOException {
+        out.write(bytes(binary));
+    }
+
+    private byte[] bytes(boolean binary) {
+        if (binary) {
+            byte[] b = binaryBytes;
+            if (b == null) {
+                b = encodeBinary();
+                binaryBytes = b;
+            }
+            return b;
+        }
+        byte[] b = textBytes;
+        if (b == null) {
+            b = (toString() + "\n").getBytes(StandardCharsets.UTF_8);
+            textBytes = b;
+        }
+        return b;
+    }
+
+    private byte[] encodeBinary() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        int flag = 0;
+        if (requestId != 0) {
+            BinaryCodec.writeVarint(payload, requestId);
+            flag = BinaryCodec.REQUEST_ID_FLAG;
+        }
+        if (type == null) {
+            BinaryCodec.writeString(payload, text);
+            return BinaryCodec.frame(Reply.INFO.opcode() | flag, payload);
+        }
+        switch (type) {
+            case MSG:
+                BinaryCodec.writeVarint(payload, userId);
+                BinaryCodec.writeVarint(payload, roomId);
+                BinaryCodec.writeString(payload, text);
+                break;
+            case ECO:
+                BinaryCodec.writeVarint(payload, roomId);
+                BinaryCodec.writeString(payload, text);
+                break;
+            case DEFINE_USUARIO:
+                BinaryCodec.writeVarint(payload, userId);
+                BinaryCodec.writeString(payload, text);
+                break;
+            case DEFINE_SALA:
+                BinaryCodec.writeVarint(payload, roomId);
+                BinaryCodec.writeString(payload, text);
+                break;
+            default:
+                BinaryCodec.writeString(payload, text);
+        }
+        return BinaryCodec.frame(type.opcode() | flag, payload);
+    }
+
+    // Forma textual da mensagem (sem o '\n')
+    @Override
+    public String toString() {
+        if (requestId != 0) {
+            return Command.REQUEST_ID_PREFIX + requestId + ":" + line();
+        }
+        return line();
+    }
+
+    private String line() {
+        if (type == null) {
+            return text;
+        }
+        switch (type) {
+            case MSG:
+                return "MSG:" + getUsername() + ":" + getRoomName() + ":" + text;
+            case ECO:
+                return "[" + getRoomName() + "] Você: " + text;
+            default:
+                return type.text() + ":" + text;
+        }
+    }
+}
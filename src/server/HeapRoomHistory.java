@@ -0,0 +1,107 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Histórico em um anel de Frames: guarda as próprias mensagens já codificadas do broadcast
+public class HeapRoomHistory implements RoomHistory {
+    private final Frame[] frames;
+    private final int[] sizes;
+    private final long[] seqs;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int oldest;     // posição da mensagem mais antiga no anel
+    private int count;
+    private long bytes;
+    private long nextSeq = 1;
+    private boolean closed;
+
+    public HeapRoomHistory(int maxMessages, long maxBytes) {
+        this.frames = new Frame[maxMessages];
+        this.sizes = new int[maxMessages];
+        this.seqs = new long[maxMessages];
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public long append(Frame chatFrame) {
+        int size = chatFrame.length(false);
+        lock.lock();
+        try {
+            long seq = nextSeq++;
+            if (closed || size > maxBytes) {
+                return seq; // maior que o histórico inteiro (ou sala encerrada): não é guardada
+            }
+            while (count > 0 && (count == frames.length || bytes + size > maxBytes)) {
+                evictOldest();
+            }
+            int slot = slot(count);
+            frames[slot] = chatFrame;
+            sizes[slot] = size;
+            seqs[slot] = seq;
+            bytes += size;
+            count++;
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictOldest() {
+        bytes -= sizes[oldest];
+        frames[oldest] = null;
+        oldest = (oldest + 1) % frames.length;
+        count--;
+    }
+
+    @Override
+    public Page before(long beforeSeq, int limit) {
+        lock.lock();
+        try {
+            // Anda do mais novo para o mais antigo até achar a última mensagem antes de beforeSeq
+            int last = count - 1;
+            while (last >= 0 && seqs[slot(last)] >= beforeSeq) {
+                last--;
+            }
+            int first = Math.max(0, last - limit + 1);
+            if (last < first) {
+                return Page.EMPTY;
+            }
+            List<Frame> page = new ArrayList<>(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                page.add(frames[slot(i)]);
+            }
+            return new Page(seqs[slot(first)], page);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int slot(int index) {
+        return (oldest + index) % frames.length;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (count > 0) {
+                evictOldest();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
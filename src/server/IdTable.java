@@ -0,0 +1,42 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Tabela indexada diretamente pelo id, para ids densos (os da SymbolTable começam em 1, crescem
+// de um em um e os liberados são reaproveitados). A leitura é um acesso ao array, sem lock e sem boxing;
+// só a escrita sincroniza.
+public class IdTable<V> {
+    private volatile AtomicReferenceArray<V> slots = new AtomicReferenceArray<>(64);
+
+    public V get(int id) {
+        AtomicReferenceArray<V> current = slots;
+        return id >= 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    public synchronized void set(int id, V value) {
+        AtomicReferenceArray<V> current = slots;
+        if (id >= current.length()) {
+            current = grow(current, id);
+        }
+        current.set(id, value);
+    }
+
+    // Remove só se o id ainda aponta para value (outro objeto pode ter ocupado o id depois)
+    public synchronized boolean remove(int id, V value) {
+        AtomicReferenceArray<V> current = slots;
+        return id >= 0 && id < current.length() && current.compareAndSet(id, value, null);
+    }
+
+    private AtomicReferenceArray<V> grow(AtomicReferenceArray<V> current, int id) {
+        int length = current.length();
+        while (length <= id) {
+            length *= 2;
+        }
+        AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        slots = grown;
+        return grown;
+    }
+}
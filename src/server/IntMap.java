@@ -0,0 +1,153 @@
+package server;
+
+// Mapa int -> objeto com endereçamento aberto (sondagem linear): chaves num int[], sem boxing
+// e sem um objeto por entrada. A chave 0 marca posição vazia (ids válidos começam em 1).
+// Não é thread-safe: quem usa faz a sincronização.
+public class IntMap<V> {
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntMap() {
+        this(16);
+    }
+
+    public IntMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    // Retorna o valor já associado à chave, ou null se value foi inserido
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(int key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("chave 0 é reservada");
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    // Associa a chave a value, trocando o valor anterior se houver
+    public void put(int key, V value) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        putIfAbsent(key, value);
+    }
+
+    // Remove só se a chave está associada a value
+    public boolean remove(int key, V value) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                if (values[i] != value) {
+                    return false;
+                }
+                deleteAt(i, mask);
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    // Troca o valor só se a chave está associada a oldValue
+    public boolean replace(int key, V oldValue, V newValue) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (values[i] != oldValue) {
+                    return false;
+                }
+                values[i] = newValue;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Sem lápides: puxa para trás as entradas seguintes que ficariam inalcançáveis
+    private void deleteAt(int hole, int mask) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == 0) {
+                break;
+            }
+            int home = slot(keys[i], mask);
+            // A entrada em i pode ocupar o buraco se a posição ideal dela não fica entre o buraco e i
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // Ids sequenciais ficariam agrupados; a multiplicação espalha as posições
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+}
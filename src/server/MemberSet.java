@@ -0,0 +1,108 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Membros de uma sala: array imutável para percorrer nos broadcasts, sem lock, e índice por id do usuário
+// (IntMap, sem boxing) com a posição de cada um no array. Entrar e sair trocam o array por uma cópia com uma
+// posição a mais ou a menos (quem sai dá lugar ao último, então nada mais se move); o índice só é alterado,
+// nunca copiado, e o aviso de entrada que vem logo depois já percorre o array novo, sem reconstrução.
+public class MemberSet {
+    private static final ClientHandler[] EMPTY = new ClientHandler[0];
+
+    private static final class Member {
+        final ClientHandler user;
+        int slot;
+
+        Member(ClientHandler user, int slot) {
+            this.user = user;
+            this.slot = slot;
+        }
+    }
+
+    private final IntMap<Member> byId = new IntMap<>();
+    private final ReentrantLock lock = new ReentrantLock(); // protege byId e a troca do array
+    private volatile ClientHandler[] members = EMPTY;
+
+    public boolean add(ClientHandler user) {
+        lock.lock();
+        try {
+            ClientHandler[] current = members;
+            if (byId.putIfAbsent(user.getUserId(), new Member(user, current.length)) != null) {
+                return false;
+            }
+            ClientHandler[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = user;
+            members = next;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(ClientHandler user) {
+        lock.lock();
+        try {
+            Member member = byId.get(user.getUserId());
+            if (member == null || member.user != user) {
+                return false;
+            }
+            byId.remove(user.getUserId(), member);
+            ClientHandler[] current = members;
+            int last = current.length - 1;
+            ClientHandler[] next = Arrays.copyOf(current, last);
+            if (member.slot != last) {
+                ClientHandler moved = current[last];
+                next[member.slot] = moved;
+                byId.get(moved.getUserId()).slot = member.slot;
+            }
+            members = next;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Mesma pessoa em outra conexão (sessão retomada): troca sem sair e entrar de novo
+    public boolean replace(ClientHandler oldUser, ClientHandler newUser) {
+        lock.lock();
+        try {
+            Member member = byId.get(oldUser.getUserId());
+            if (member == null || member.user != oldUser) {
+                return false;
+            }
+            Member replacement = new Member(newUser, member.slot);
+            byId.replace(oldUser.getUserId(), member, replacement);
+            ClientHandler[] next = members.clone();
+            next[member.slot] = newUser;
+            members = next;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Busca pontual (expulsar, mensagem vinda de outro nó): pega o lock só pelo tempo da consulta
+    public ClientHandler get(int userId) {
+        lock.lock();
+        try {
+            Member member = byId.get(userId);
+            return member != null ? member.user : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(int userId) {
+        return get(userId) != null;
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    // O array retornado nunca é alterado; não deve ser modificado por quem chama
+    public ClientHandler[] snapshot() {
+        return members;
+    }
+}
@@ -0,0 +1,196 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Segmento no heap. O ativo só é alterado pela thread do indexador, em lotes, com o lock deste objeto;
+// as buscas tomam o mesmo lock. Depois de selado não muda mais e é lido sem lock.
+public class MemorySearchSegment implements SearchSegment {
+    private final int capacity;
+    private final TreeMap<String, Postings> terms = new TreeMap<>(); // ordenado: busca por prefixo é um subMap
+    private final int[] rooms;
+    private final int[] users;
+    private final long[] times;
+    private final String[] texts;
+    private int size;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+
+    // Lista de mensagens de um termo; os ids chegam em ordem, então continua ordenada sem esforço
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return; // termo repetido na mesma mensagem
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    public MemorySearchSegment(int capacity) {
+        this.capacity = capacity;
+        this.rooms = new int[capacity];
+        this.users = new int[capacity];
+        this.times = new long[capacity];
+        this.texts = new String[capacity];
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    // Chamado pelo indexador com o lock tomado; os termos já vêm normalizados
+    public void add(int room, int user, long time, String text, String[] tokens) {
+        int doc = size++;
+        rooms[doc] = room;
+        users[doc] = user;
+        times[doc] = time;
+        texts[doc] = text;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        for (String token : tokens) {
+            terms.computeIfAbsent(token, t -> new Postings()).add(doc);
+        }
+    }
+
+    @Override
+    public int[] docs(String term, boolean prefix) {
+        if (!prefix) {
+            Postings postings = terms.get(term);
+            return postings != null ? Arrays.copyOf(postings.docs, postings.size) : SearchIndex.NO_DOCS;
+        }
+        NavigableMap<String, Postings> matches = terms.subMap(term, true, term + Character.MAX_VALUE, false);
+        if (matches.size() == 1) {
+            Postings postings = matches.firstEntry().getValue();
+            return Arrays.copyOf(postings.docs, postings.size);
+        }
+        int total = 0;
+        for (Postings postings : matches.values()) {
+            total += postings.size;
+        }
+        int[] docs = new int[total];
+        int n = 0;
+        for (Postings postings : matches.values()) {
+            System.arraycopy(postings.docs, 0, docs, n, postings.size);
+            n += postings.size;
+        }
+        return SearchIndex.sortedUnique(docs);
+    }
+
+    @Override
+    public int room(int doc) {
+        return rooms[doc];
+    }
+
+    @Override
+    public int user(int doc) {
+        return users[doc];
+    }
+
+    @Override
+    public long time(int doc) {
+        return times[doc];
+    }
+
+    @Override
+    public String text(int doc) {
+        return texts[doc];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getMinTime() {
+        return minTime;
+    }
+
+    @Override
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    @Override
+    public void delete() {
+    }
+
+    // Formato lido por FileSearchSegment: cabeçalho, tabela de mensagens, tabela de termos (em ordem),
+    // listas de mensagens de cada termo e, por último, os textos ([tamanho][UTF-8]). As posições são
+    // absolutas no arquivo.
+    public void writeTo(Path file) throws IOException {
+        byte[][] textBytes = new byte[size][];
+        long stringBytes = 0;
+        for (int doc = 0; doc < size; doc++) {
+            textBytes[doc] = texts[doc].getBytes(StandardCharsets.UTF_8);
+            stringBytes += 4 + textBytes[doc].length;
+        }
+        byte[][] termBytes = new byte[terms.size()][];
+        long postingCount = 0;
+        int t = 0;
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            termBytes[t++] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            stringBytes += 4 + termBytes[t - 1].length;
+            postingCount += entry.getValue().size;
+        }
+        long docsStart = FileSearchSegment.HEADER_BYTES;
+        long termsStart = docsStart + (long) FileSearchSegment.DOC_BYTES * size;
+        long postingsStart = termsStart + (long) FileSearchSegment.TERM_BYTES * terms.size();
+        long stringsStart = postingsStart + 4 * postingCount;
+        if (stringsStart + stringBytes > Integer.MAX_VALUE) {
+            throw new IOException("segmento grande demais para um arquivo mapeado");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536))) {
+            out.writeInt(FileSearchSegment.MAGIC);
+            out.writeInt(size);
+            out.writeInt(terms.size());
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            long stringPos = stringsStart;
+            for (int doc = 0; doc < size; doc++) {
+                out.writeInt(rooms[doc]);
+                out.writeInt(users[doc]);
+                out.writeLong(times[doc]);
+                out.writeInt((int) stringPos);
+                stringPos += 4 + textBytes[doc].length;
+            }
+            long postingPos = postingsStart;
+            t = 0;
+            for (Postings postings : terms.values()) {
+                out.writeInt((int) stringPos);
+                out.writeInt((int) postingPos);
+                out.writeInt(postings.size);
+                stringPos += 4 + termBytes[t++].length;
+                postingPos += 4L * postings.size;
+            }
+            for (Postings postings : terms.values()) {
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.docs[i]);
+                }
+            }
+            for (byte[] bytes : textBytes) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (byte[] bytes : termBytes) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package server;
+
+import protocol.Command;
+
+import javax.net.ssl.SSLSession;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Métricas do servidor. A gravação (caminho quente) usa só LongAdder e histogramas sem lock;
+// a leitura soma tudo na hora, para o comando ESTATISTICAS e para o endpoint Prometheus.
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final LongAdder[] commandCounts = new LongAdder[Command.values().length];
+    private final LatencyHistogram[] commandNanos = new LatencyHistogram[Command.values().length];
+    private final LongAdder unknownCommands = new LongAdder();
+    private final LongAdder commandsQueued = new LongAdder();    // admin no executor, ou na fila atrás de um
+    private final LongAdder commandsPipelined = new LongAdder(); // consultas com id respondidas no executor
+    private final LatencyHistogram fanout = new LatencyHistogram();
+    private final LatencyHistogram broadcastNanos = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshakeNanos = new LatencyHistogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder socketWrites = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder userThrottled = new LongAdder();
+    private final LongAdder roomThrottled = new LongAdder();
+    private final LongAdder compressedConnections = new LongAdder();
+    private final LongAdder compressionIn = new LongAdder();  // bytes antes do deflate
+    private final LongAdder compressionOut = new LongAdder(); // bytes dos blocos comprimidos
+    private final LongAdder loginsRejectedRate = new LongAdder();
+    private final LongAdder loginsRejectedOverload = new LongAdder();
+    private final LongAdder sessionsParked = new LongAdder();
+    private final LongAdder sessionsResumed = new LongAdder();
+    private final LongAdder sessionsExpired = new LongAdder();
+    private final LongAdder framesReplayed = new LongAdder(); // entregues ao retomar
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder searchIndexed = new LongAdder();
+    private final LongAdder searchDropped = new LongAdder(); // fila do indexador cheia: fora do índice
+    private final LongAdder reapedDead = new LongAdder(); // sem resposta ao PING
+    private final LongAdder reapedIdle = new LongAdder(); // sem comandos por --idle-timeout-s
+    private final LongAdder tlsFull = new LongAdder();
+    private final LongAdder tlsResumed = new LongAdder();
+    private final LongAdder tlsFailed = new LongAdder();
+    private final LongAdder tlsBuffersAllocated = new LongAdder(); // buffers do SSLEngine criados (modo NIO)
+
+    public Metrics() {
+        for (int i = 0; i < commandCounts.length; i++) {
+            commandCounts[i] = new LongAdder();
+            commandNanos[i] = new LatencyHistogram();
+        }
+    }
+
+    // Contadores de broadcast de uma sala; também alimentam os histogramas globais (se houver)
+    public static class RoomStats {
+        private final Metrics owner;
+        private final LongAdder broadcasts = new LongAdder();
+        private final LongAdder recipients = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxFanout = new LongAccumulator(Math::max, 0);
+        private final LongAdder throttled = new LongAdder();
+
+        public RoomStats(Metrics owner) {
+            this.owner = owner;
+        }
+
+        public void recordBroadcast(int delivered, long elapsedNanos) {
+            broadcasts.increment();
+            recipients.add(delivered);
+            nanos.add(elapsedNanos);
+            maxFanout.accumulate(delivered);
+            if (owner != null) {
+                owner.fanout.record(delivered);
+                owner.broadcastNanos.record(elapsedNanos);
+            }
+        }
+
+        // Mensagem recusada pelo limite da sala
+        public void recordThrottle() {
+            throttled.increment();
+            if (owner != null) {
+                owner.roomThrottled.increment();
+            }
+        }
+    }
+
+    public void recordCommand(Command command, long elapsedNanos) {
+        commandCounts[command.ordinal()].increment();
+        commandNanos[command.ordinal()].record(elapsedNanos);
+    }
+
+    public void recordUnknownCommand() {
+        unknownCommands.increment();
+    }
+
+    public void commandQueued() {
+        commandsQueued.increment();
+    }
+
+    public void commandPipelined() {
+        commandsPipelined.increment();
+    }
+
+    public void compressionStarted() {
+        compressedConnections.increment();
+    }
+
+    public void recordCompression(long rawBytes, long compressedBytes) {
+        compressionIn.add(rawBytes);
+        compressionOut.add(compressedBytes);
+    }
+
+    // Bytes originais por byte enviado nas conexões com deflate (0 se nenhuma usou)
+    public double getCompressionRatio() {
+        long out = compressionOut.sum();
+        return out == 0 ? 0 : (double) compressionIn.sum() / out;
+    }
+
+    // Login recusado pelo AdmissionController: pela taxa de logins ou por sobrecarga
+    public void recordLoginRejected(boolean byRate) {
+        (byRate ? loginsRejectedRate : loginsRejectedOverload).increment();
+    }
+
+    public void searchIndexed(int messages) {
+        searchIndexed.add(messages);
+    }
+
+    public void searchDropped() {
+        searchDropped.increment();
+    }
+
+    public void pingSent() {
+        pingsSent.increment();
+    }
+
+    // Conexão encerrada pelo heartbeat (dead = não respondeu ao PING) ou por inatividade
+    public void connectionReaped(boolean dead) {
+        (dead ? reapedDead : reapedIdle).increment();
+    }
+
+    // Sessão criada antes de o handshake começar: veio do cache ou de um ticket, sem o handshake completo
+    public void tlsHandshake(SSLSession session, long startMillis, long elapsedNanos) {
+        (session.getCreationTime() < startMillis ? tlsResumed : tlsFull).increment();
+        tlsHandshakeNanos.record(elapsedNanos);
+    }
+
+    public void tlsHandshakeFailed() {
+        tlsFailed.increment();
+    }
+
+    public void tlsBufferAllocated() {
+        tlsBuffersAllocated.increment();
+    }
+
+    public void sessionParked() {
+        sessionsParked.increment();
+    }
+
+    public void sessionResumed(int replayedFrames) {
+        sessionsResumed.increment();
+        framesReplayed.add(replayedFrames);
+    }
+
+    public void sessionExpired() {
+        sessionsExpired.increment();
+    }
+
+    // Toda sessão retomada ou expirada foi estacionada antes
+    public long getParkedSessions() {
+        return sessionsParked.sum() - sessionsResumed.sum() - sessionsExpired.sum();
+    }
+
+    // Mensagem recusada pelo limite do usuário
+    public void recordUserThrottle() {
+        userThrottled.increment();
+    }
+
+    public void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void addFramesOut(long frames) {
+        framesOut.add(frames);
+    }
+
+    // Uma chamada de escrita no socket (write/flush), não importa quantos frames leve
+    public void socketWrite() {
+        socketWrites.increment();
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    // Resumo legível, uma métrica por linha (comando ESTATISTICAS)
+    public List<String> summary(ChatServer server) {
+        Collection<Room> rooms = server.getRoomManager().getRooms();
+        List<String> lines = new ArrayList<>();
+        lines.add("conexoes=" + getActiveConnections() + " usuarios=" + server.getClientCount()
+                + " salas=" + rooms.size() + " threads=" + ManagementFactory.getThreadMXBean().getThreadCount());
+        lines.add("bytes_recebidos=" + bytesIn.sum() + " bytes_enviados=" + bytesOut.sum()
+                + " frames_enviados=" + framesOut.sum() + " escritas_socket=" + socketWrites.sum());
+        lines.add("fila_saida=" + server.getTotalQueuedMessages() + " descartadas=" + server.getTotalDroppedMessages());
+        lines.add("broadcast n=" + fanout.count()
+                + " destinatarios_p50=" + fanout.percentile(0.5) + " destinatarios_p99=" + fanout.percentile(0.99)
+                + " duracao_p50_us=" + broadcastNanos.percentile(0.5) / 1000
+                + " duracao_p99_us=" + broadcastNanos.percentile(0.99) / 1000);
+        for (Command command : Command.values()) {
+            LatencyHistogram histogram = commandNanos[command.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            lines.add(command.text() + " n=" + histogram.count()
+                    + " p50_us=" + histogram.percentile(0.5) / 1000
+                    + " p99_us=" + histogram.percentile(0.99) / 1000
+                    + " p999_us=" + histogram.percentile(0.999) / 1000);
+        }
+        lines.add(String.format(Locale.ROOT, "compressao conexoes=%d bytes_originais=%d bytes_comprimidos=%d razao=%.2f",
+                compressedConnections.sum(), compressionIn.sum(), compressionOut.sum(), getCompressionRatio()));
+        lines.add("limitadas_usuario=" + userThrottled.sum() + " limitadas_sala=" + roomThrottled.sum());
+        lines.add("logins_recusados taxa=" + loginsRejectedRate.sum() + " sobrecarga=" + loginsRejectedOverload.sum());
+        lines.add("sessoes estacionadas=" + getParkedSessions() + " retomadas=" + sessionsResumed.sum()
+                + " expiradas=" + sessionsExpired.sum() + " frames_reenviados=" + framesReplayed.sum());
+        lines.add("busca indexadas=" + searchIndexed.sum() + " fora_do_indice=" + searchDropped.sum());
+        lines.add("heartbeat pings=" + pingsSent.sum() + " sem_resposta=" + reapedDead.sum()
+                + " inativas=" + reapedIdle.sum());
+        if (tlsHandshakeNanos.count() > 0 || tlsFailed.sum() > 0) {
+            lines.add("tls handshakes=" + tlsFull.sum() + " retomados=" + tlsResumed.sum() + " falhas=" + tlsFailed.sum()
+                    + " p50_us=" + tlsHandshakeNanos.percentile(0.5) / 1000
+                    + " p99_us=" + tlsHandshakeNanos.percentile(0.99) / 1000
+                    + " buffers_alocados=" + tlsBuffersAllocated.sum());
+        }
+        if (commandsQueued.sum() > 0 || commandsPipelined.sum() > 0) {
+            lines.add("fora_da_leitura enfileirados=" + commandsQueued.sum() + " consultas_paralelas=" + commandsPipelined.sum());
+        }
+        if (unknownCommands.sum() > 0) {
+            lines.add("comandos_desconhecidos=" + unknownCommands.sum());
+        }
+        return lines;
+    }
+
+    // Formato de texto do Prometheus (versão 0.0.4)
+    public String prometheus(ChatServer server) {
+        Collection<Room> rooms = server.getRoomManager().getRooms();
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "chat_commands_total", "counter", "Comandos processados por tipo");
+        for (Command command : Command.values()) {
+            sample(sb, "chat_commands_total", "command", command.text(), commandCounts[command.ordinal()].sum());
+        }
+        header(sb, "chat_command_duration_seconds", "summary", "Tempo de processamento dos comandos");
+        for (Command command : Command.values()) {
+            summary(sb, "chat_command_duration_seconds", "command=\"" + command.text() + "\"",
+                    commandNanos[command.ordinal()], 1e-9);
+        }
+        header(sb, "chat_unknown_commands_total", "counter", "Comandos não reconhecidos");
+        sample(sb, "chat_unknown_commands_total", null, null, unknownCommands.sum());
+        header(sb, "chat_commands_off_reader_total", "counter", "Comandos que rodaram fora da thread de leitura");
+        sample(sb, "chat_commands_off_reader_total", "reason", "queued", commandsQueued.sum());
+        sample(sb, "chat_commands_off_reader_total", "reason", "pipelined", commandsPipelined.sum());
+
+        header(sb, "chat_broadcast_fanout", "summary", "Destinatários por broadcast");
+        summary(sb, "chat_broadcast_fanout", null, fanout, 1);
+        header(sb, "chat_broadcast_duration_seconds", "summary", "Duração do fan-out de um broadcast");
+        summary(sb, "chat_broadcast_duration_seconds", null, broadcastNanos, 1e-9);
+
+        header(sb, "chat_room_broadcasts_total", "counter", "Broadcasts por sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_broadcasts_total", "room", room.getName(), room.getStats().broadcasts.sum());
+        }
+        header(sb, "chat_room_recipients_total", "counter", "Mensagens entregues às filas por sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_recipients_total", "room", room.getName(), room.getStats().recipients.sum());
+        }
+        header(sb, "chat_room_broadcast_seconds_total", "counter", "Tempo total de fan-out por sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_broadcast_seconds_total", "room", room.getName(), room.getStats().nanos.sum() * 1e-9);
+        }
+        header(sb, "chat_room_max_fanout", "gauge", "Maior fan-out observado por sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_max_fanout", "room", room.getName(), room.getStats().maxFanout.get());
+        }
+        header(sb, "chat_room_throttled_total", "counter", "Mensagens recusadas pelo limite da sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_throttled_total", "room", room.getName(), room.getStats().throttled.sum());
+        }
+        header(sb, "chat_room_members", "gauge", "Membros por sala");
+        for (Room room : rooms) {
+            sample(sb, "chat_room_members", "room", room.getName(), room.getUserCount());
+        }
+
+        header(sb, "chat_throttled_total", "counter", "Mensagens recusadas por limite de taxa");
+        sample(sb, "chat_throttled_total", "limit", "user", userThrottled.sum());
+        sample(sb, "chat_throttled_total", "limit", "room", roomThrottled.sum());
+
+        header(sb, "chat_connections_active", "gauge", "Conexões abertas");
+        sample(sb, "chat_connections_active", null, null, getActiveConnections());
+        header(sb, "chat_connections_total", "counter", "Conexões aceitas");
+        sample(sb, "chat_connections_total", null, null, connectionsOpened.sum());
+        header(sb, "chat_users_logged_in", "gauge", "Usuários com login");
+        sample(sb, "chat_users_logged_in", null, null, server.getClientCount());
+        header(sb, "chat_rooms", "gauge", "Salas abertas");
+        sample(sb, "chat_rooms", null, null, rooms.size());
+        header(sb, "chat_bytes_received_total", "counter", "Bytes lidos dos clientes");
+        sample(sb, "chat_bytes_received_total", null, null, bytesIn.sum());
+        header(sb, "chat_bytes_sent_total", "counter", "Bytes escritos para os clientes");
+        sample(sb, "chat_bytes_sent_total", null, null, bytesOut.sum());
+        header(sb, "chat_frames_sent_total", "counter", "Frames escritos para os clientes");
+        sample(sb, "chat_frames_sent_total", null, null, framesOut.sum());
+        header(sb, "chat_socket_writes_total", "counter", "Chamadas de escrita nos sockets dos clientes");
+        sample(sb, "chat_socket_writes_total", null, null, socketWrites.sum());
+        header(sb, "chat_compressed_connections_total", "counter", "Conexões que pediram deflate no login");
+        sample(sb, "chat_compressed_connections_total", null, null, compressedConnections.sum());
+        header(sb, "chat_compression_input_bytes_total", "counter", "Bytes antes da compressão");
+        sample(sb, "chat_compression_input_bytes_total", null, null, compressionIn.sum());
+        header(sb, "chat_compression_output_bytes_total", "counter", "Bytes depois da compressão");
+        sample(sb, "chat_compression_output_bytes_total", null, null, compressionOut.sum());
+        header(sb, "chat_compression_ratio", "gauge", "Bytes originais por byte comprimido");
+        sample(sb, "chat_compression_ratio", null, null, getCompressionRatio());
+        header(sb, "chat_logins_rejected_total", "counter", "Logins recusados pelo controle de admissão");
+        sample(sb, "chat_logins_rejected_total", "reason", "rate", loginsRejectedRate.sum());
+        sample(sb, "chat_logins_rejected_total", "reason", "overload", loginsRejectedOverload.sum());
+        header(sb, "chat_sessions_parked", "gauge", "Sessões esperando RETOMAR");
+        sample(sb, "chat_sessions_parked", null, null, getParkedSessions());
+        header(sb, "chat_sessions_total", "counter", "Sessões estacionadas por desfecho");
+        sample(sb, "chat_sessions_total", "outcome", "parked", sessionsParked.sum());
+        sample(sb, "chat_sessions_total", "outcome", "resumed", sessionsResumed.sum());
+        sample(sb, "chat_sessions_total", "outcome", "expired", sessionsExpired.sum());
+        header(sb, "chat_session_replayed_frames_total", "counter", "Frames entregues ao retomar sessões");
+        sample(sb, "chat_session_replayed_frames_total", null, null, framesReplayed.sum());
+        header(sb, "chat_search_indexed_total", "counter", "Mensagens gravadas no índice de busca");
+        sample(sb, "chat_search_indexed_total", null, null, searchIndexed.sum());
+        header(sb, "chat_search_dropped_total", "counter", "Mensagens que ficaram fora do índice (fila do indexador cheia)");
+        sample(sb, "chat_search_dropped_total", null, null, searchDropped.sum());
+        header(sb, "chat_pings_sent_total", "counter", "PINGs enviados a conexões em silêncio");
+        sample(sb, "chat_pings_sent_total", null, null, pingsSent.sum());
+        header(sb, "chat_connections_reaped_total", "counter", "Conexões encerradas pelo heartbeat ou por inatividade");
+        sample(sb, "chat_connections_reaped_total", "reason", "heartbeat", reapedDead.sum());
+        sample(sb, "chat_connections_reaped_total", "reason", "idle", reapedIdle.sum());
+        header(sb, "chat_tls_handshakes_total", "counter", "Handshakes TLS por desfecho");
+        sample(sb, "chat_tls_handshakes_total", "outcome", "full", tlsFull.sum());
+        sample(sb, "chat_tls_handshakes_total", "outcome", "resumed", tlsResumed.sum());
+        sample(sb, "chat_tls_handshakes_total", "outcome", "failed", tlsFailed.sum());
+        header(sb, "chat_tls_handshake_duration_seconds", "summary", "Do accept ao fim do handshake TLS");
+        summary(sb, "chat_tls_handshake_duration_seconds", null, tlsHandshakeNanos, 1e-9);
+        header(sb, "chat_tls_buffers_allocated_total", "counter", "Buffers do SSLEngine criados (os demais vêm do pool)");
+        sample(sb, "chat_tls_buffers_allocated_total", null, null, tlsBuffersAllocated.sum());
+        header(sb, "chat_outbound_queued_messages", "gauge", "Mensagens aguardando nas filas de saída");
+        sample(sb, "chat_outbound_queued_messages", null, null, server.getTotalQueuedMessages());
+        header(sb, "chat_outbound_dropped_total", "counter", "Mensagens descartadas por clientes lentos");
+        sample(sb, "chat_outbound_dropped_total", null, null, server.getTotalDroppedMessages());
+        header(sb, "chat_jvm_threads", "gauge", "Threads da JVM");
+        sample(sb, "chat_jvm_threads", null, null, ManagementFactory.getThreadMXBean().getThreadCount());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, double value) {
+        sb.append(name);
+        if (label != null) {
+            sb.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+        }
+        sb.append(' ').append(format(value)).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram histogram, double scale) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double q : QUANTILES) {
+            sb.append(name).append('{').append(prefix).append("quantile=\"").append(q).append("\"} ")
+                    .append(format(histogram.percentile(q) * scale)).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(suffix).append(' ').append(format(histogram.sum() * scale)).append('\n');
+        sb.append(name).append("_count").append(suffix).append(' ').append(histogram.count()).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
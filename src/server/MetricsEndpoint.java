@@ -0,0 +1,47 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Endpoint HTTP local (só loopback) com as métricas no formato do Prometheus: GET /metrics
+public class MetricsEndpoint {
+    private final HttpServer http;
+
+    public MetricsEndpoint(ChatServer server, int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> respond(exchange, server));
+        http.setExecutor(null); // uma única thread de atendimento basta para o scrape
+    }
+
+    private static void respond(HttpExchange exchange, ChatServer server) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = server.getMetrics().prometheus(server).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void start() {
+        http.start();
+        System.out.println("Métricas disponíveis em http://127.0.0.1:" + http.getAddress().getPort() + "/metrics");
+    }
+
+    public void stop() {
+        http.stop(0);
+    }
+}
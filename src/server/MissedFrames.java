@@ -0,0 +1,60 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Frames enviados a uma sessão estacionada (conexão caiu, sessão à espera de RETOMAR). Limitado:
+// quando enche, descarta os mais antigos e conta quantos, para avisar o cliente ao retomar.
+public class MissedFrames {
+    private final int capacity;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long dropped;
+    private boolean closed;
+
+    public MissedFrames(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // false depois de close: quem chamou entrega o frame por outro caminho
+    public synchronized boolean add(Frame frame) {
+        if (closed) {
+            return false;
+        }
+        frames.addLast(frame);
+        trim();
+        return true;
+    }
+
+    // Frames que já estavam na fila de saída quando a conexão caiu: são anteriores aos guardados aqui
+    public synchronized void addOlder(List<Frame> older) {
+        for (int i = older.size() - 1; i >= 0; i--) {
+            frames.addFirst(older.get(i));
+        }
+        trim();
+    }
+
+    private void trim() {
+        while (frames.size() > capacity) {
+            frames.pollFirst();
+            dropped++;
+        }
+    }
+
+    // Fecha e devolve o que foi guardado. Chamado com o lock deste objeto já tomado por quem precisa
+    // enfileirar o resultado antes que um add concorrente (que agora falha) siga pelo caminho normal.
+    public synchronized List<Frame> close() {
+        closed = true;
+        List<Frame> result = new ArrayList<>(frames);
+        frames.clear();
+        return result;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+}
@@ -0,0 +1,292 @@
+package server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Conexão não bloqueante: entrega os bytes lidos ao ClientHandler e escreve sua fila de saída
+public class NioConnection {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioEventLoop loop;
+    private ByteBuffer readBuffer; // só sem TLS, que lê para os buffers do pool do loop
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>(); // já codificados, ainda não escritos
+    private final WireEncoder encoder = new WireEncoder();
+    private final List<Frame> encoded = new ArrayList<>(3);
+    private final FlushPolicy flush;
+    private boolean flushTimerSet; // só a thread do loop mexe
+    // Compressão (também só a thread do loop): o marcador chega com frames sem compressão ainda pendentes,
+    // que saem primeiro; depois cada escrita vira um bloco, que não recebe mais frames até sair inteiro
+    private DeflaterPool deflater;
+    private boolean deflateAfterFlush;
+    private boolean blockInFlight;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ClientHandler handler;
+    private TlsEngine tls; // null sem TLS
+
+    public NioConnection(SocketChannel channel, SelectionKey key, NioEventLoop loop, FlushPolicy flush) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.flush = flush;
+    }
+
+    public void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    public void setTls(TlsEngine tls) {
+        this.tls = tls;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Chamado pelo event loop quando há dados para ler
+    public void onReadable() throws IOException {
+        if (tls != null) {
+            if (!tls.read(handler) || !handler.isConnected()) {
+                close();
+            }
+            return;
+        }
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+
+        // Erros de protocolo (linha ou frame grande demais) chegam como IOException e fecham a conexão
+        handler.onBytes(readBuffer);
+        if (!handler.isConnected()) {
+            close();
+        }
+    }
+
+    // Leitura desligada enquanto as tarefas do handshake TLS rodam fora do loop, ou enquanto o
+    // ClientHandler espera um login ou RETOMAR terminar
+    void setReadInterest(boolean enabled) {
+        if (key.isValid()) {
+            int ops = key.interestOps();
+            key.interestOps(enabled ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ);
+        }
+    }
+
+    // Na thread do loop, quando as tarefas do handshake terminam
+    void tlsTasksDone() {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            setReadInterest(true);
+            if (!tls.resume(handler) || !handler.isConnected()) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // De qualquer thread: terminou o comando que pausou a leitura (login ou RETOMAR na fila)
+    public void resumeReads() {
+        if (!closed.get()) {
+            loop.execute(this::readsResumed);
+        }
+    }
+
+    // Na thread do loop: o que já estava no decoder vira comando, e o socket volta a ser lido
+    private void readsResumed() {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            handler.resumeDecoding();
+            if (!handler.isConnected()) {
+                close();
+            } else if (!handler.isReadPaused()) {
+                setReadInterest(true);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Chamado pela fila de saída do cliente (de qualquer thread); a escrita acontece no event loop
+    public void requestWrite() {
+        if (!closed.get() && writeScheduled.compareAndSet(false, true)) {
+            loop.execute(this::enableWrite);
+        }
+    }
+
+    private void enableWrite() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // Chamado pelo event loop quando o socket aceita mais dados
+    public void onWritable() throws IOException {
+        OutboundQueue outbound = handler.getOutbound();
+        Metrics metrics = handler.getMetrics();
+        if (tls != null) {
+            // Bytes cifrados que sobraram (de frames ou do próprio handshake) saem antes de tudo
+            tls.write(NO_BUFFERS);
+            if (tls.hasPendingOutput()) {
+                return;
+            }
+        }
+        while (true) {
+            // Junta o que está na fila (até o limite de bytes) para uma única escrita com gathering
+            Frame frame;
+            while (!flush.isFull() && !deflateAfterFlush && !blockInFlight && (frame = outbound.poll()) != null) {
+                if (frame.isDeflateStart() && deflater == null) {
+                    if (pendingWrites.isEmpty()) {
+                        deflater = handler.getServer().getDeflaterPool();
+                    } else {
+                        deflateAfterFlush = true;
+                    }
+                    continue;
+                }
+                encoder.encode(frame, encoded);
+                for (Frame f : encoded) {
+                    ByteBuffer buffer = f.buffer(encoder.isBinary());
+                    flush.written(buffer.remaining(), frame.isDroppable());
+                    pendingWrites.add(buffer);
+                }
+                metrics.addFramesOut(encoded.size());
+                encoded.clear();
+            }
+            if (pendingWrites.isEmpty()) {
+                break;
+            }
+
+            long wait = flush.waitNanos();
+            if (wait > 0) {
+                // Só chat na fila e a janela não acabou: mais frames podem chegar para a mesma escrita
+                deferWrite(wait);
+                return;
+            }
+
+            if (deflater != null && !blockInFlight) {
+                ByteBuffer block = ByteBuffer.wrap(deflater.compressBlock(pendingWrites));
+                pendingWrites.clear();
+                pendingWrites.add(block);
+                blockInFlight = true;
+            }
+
+            if (tls != null) {
+                tls.write(pendingWrites.toArray(new ByteBuffer[0])); // conta os bytes cifrados
+            } else {
+                long written;
+                if (pendingWrites.size() == 1) {
+                    written = channel.write(pendingWrites.peek());
+                } else {
+                    written = channel.write(pendingWrites.toArray(new ByteBuffer[0]));
+                }
+                metrics.socketWrite();
+                metrics.addBytesOut(written);
+            }
+            while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining()) {
+                pendingWrites.poll();
+            }
+            if (tls != null && tls.hasPendingOutput()) {
+                return; // janela TCP cheia, espera o próximo OP_WRITE
+            }
+            if (!pendingWrites.isEmpty()) {
+                if (tls != null && tls.isHandshaking()) {
+                    pauseWrite(); // o fim do handshake pede a escrita de novo
+                }
+                return; // janela TCP cheia, espera o próximo OP_WRITE
+            }
+            flush.flushed();
+            blockInFlight = false;
+            if (deflateAfterFlush) {
+                deflateAfterFlush = false;
+                deflater = handler.getServer().getDeflaterPool();
+            }
+        }
+
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        writeScheduled.set(false);
+        // Algo pode ter sido enfileirado entre o último poll e o set acima
+        if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            enableWrite();
+        }
+    }
+
+    private void pauseWrite() {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        writeScheduled.set(false);
+    }
+
+    // Desliga o OP_WRITE até o fim da janela. Um frame novo na fila (requestWrite) ainda religa antes,
+    // para que uma resposta de controle não espere a janela.
+    private void deferWrite(long waitNanos) {
+        pauseWrite();
+        if (!flushTimerSet) {
+            flushTimerSet = true;
+            loop.schedule(this::flushTimerExpired, waitNanos);
+        }
+        if (!handler.getOutbound().isEmpty()) {
+            requestWrite();
+        }
+    }
+
+    private void flushTimerExpired() {
+        flushTimerSet = false;
+        if (!closed.get() && !pendingWrites.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            enableWrite();
+        }
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (loop.inEventLoop()) {
+            doClose();
+        } else {
+            loop.execute(this::doClose);
+        }
+    }
+
+    private void doClose() {
+        if (tls != null) {
+            tls.close();
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar conexão: " + e.getMessage());
+        }
+        pendingWrites.clear();
+        if (handler != null) {
+            handler.connectionLost();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
@@ -0,0 +1,201 @@
+package server;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Thread de event loop: atende leituras e escritas de várias conexões sem bloquear
+public class NioEventLoop implements Runnable {
+    private final ChatServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // só a thread do loop mexe
+    private final Thread thread;
+    private final BufferPool tlsNetBuffers; // null sem TLS; só a thread do loop mexe
+    private final BufferPool tlsAppBuffers;
+    private volatile boolean running;
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    public NioEventLoop(ChatServer server, int index) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "nio-loop-" + index);
+        if (server.getTlsContext() != null) {
+            SSLSession session = server.newTlsEngine().getSession();
+            int pooled = server.getConfig().getTlsPooledBuffers();
+            this.tlsNetBuffers = new BufferPool(session.getPacketBufferSize(), pooled, server.getMetrics());
+            this.tlsAppBuffers = new BufferPool(session.getApplicationBufferSize(), pooled, server.getMetrics());
+        } else {
+            this.tlsNetBuffers = null;
+            this.tlsAppBuffers = null;
+        }
+    }
+
+    public BufferPool getTlsNetBuffers() {
+        return tlsNetBuffers;
+    }
+
+    public BufferPool getTlsAppBuffers() {
+        return tlsAppBuffers;
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Executa a tarefa dentro da thread do loop
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    // Executa a tarefa na thread do loop depois de delayNanos (arredondado para cima em milissegundos,
+    // a resolução do select)
+    public void schedule(Runnable task, long delayNanos) {
+        if (!inEventLoop()) {
+            execute(() -> schedule(task, delayNanos));
+            return;
+        }
+        timers.add(new Timer(System.nanoTime() + delayNanos, task));
+    }
+
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(channel, key, this, server.getConfig().newFlushPolicy());
+                if (server.getTlsContext() != null) {
+                    connection.setTls(new TlsEngine(server.newTlsEngine(), channel, connection, this, server));
+                }
+                connection.setHandler(new ClientHandler(connection, server));
+                key.attach(connection);
+            } catch (IOException e) {
+                System.err.println("Erro ao registrar conexão: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Tarefas criadas pela própria thread do loop não chamam wakeup
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timers.isEmpty()) {
+                    selector.select();
+                } else {
+                    long waitNanos = timers.peek().deadline - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select((waitNanos + 999_999) / 1_000_000);
+                    }
+                }
+                runTasks();
+                runTimers();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (connection == null) {
+                        continue;
+                    }
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // Erro ao tratar um comando: só esta conexão é fechada, o loop continua atendendo as outras
+                        System.err.println("Erro ao processar conexão: " + e);
+                        connection.close();
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                // canal fechado durante o select, segue o loop
+            } catch (IOException e) {
+                System.err.println("Erro no event loop: " + e.getMessage());
+            }
+        }
+
+        // Encerra as conexões restantes
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar selector: " + e.getMessage());
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+            run(timers.poll().task);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            run(task);
+        }
+    }
+
+    // Uma tarefa que falha não derruba a thread do loop (nem as conexões que ela atende)
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Erro em tarefa do event loop: " + e);
+        }
+    }
+}
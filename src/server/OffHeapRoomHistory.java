@@ -0,0 +1,142 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Histórico guardado fora do heap, num ByteBuffer direto de tamanho fixo usado como anel.
+// Cada registro: [id do usuário int][texto UTF-8]; o nome do usuário é resolvido pelo id ao ler. Cada registro
+// segura uma referência ao id na SymbolTable, solta quando ele é descartado, para o id não mudar de dono.
+// Os Frames são remontados na leitura, então o heap não cresce com o histórico da sala.
+public class OffHeapRoomHistory implements RoomHistory {
+    private final ByteBuffer data;
+    private final long[] seqs;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int roomId;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int oldest;   // índice do registro mais antigo
+    private int count;
+    private int writePos; // próxima posição livre em data
+    private long nextSeq = 1;
+    private boolean closed;
+
+    public OffHeapRoomHistory(int maxMessages, long maxBytes, int roomId) {
+        this.data = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, maxBytes));
+        this.seqs = new long[maxMessages];
+        this.offsets = new int[maxMessages];
+        this.lengths = new int[maxMessages];
+        this.roomId = roomId;
+    }
+
+    @Override
+    public long append(Frame chatFrame) {
+        byte[] text = chatFrame.getText().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + text.length;
+
+        lock.lock();
+        try {
+            long seq = nextSeq++;
+            if (closed || length > data.capacity()) {
+                return seq;
+            }
+
+            int pos = writePos;
+            if (pos + length > data.capacity()) {
+                // Não cabe no fim: os registros do fim são os mais antigos e são descartados
+                while (count > 0 && offsets[oldest] >= pos) {
+                    evictOldest();
+                }
+                pos = 0;
+            }
+            while (count > 0 && (count == seqs.length || overlaps(oldest, pos, length))) {
+                evictOldest();
+            }
+
+            data.putInt(pos, chatFrame.getUserId());
+            data.put(pos + 4, text);
+            SymbolTable.USERS.retain(chatFrame.getUserId()); // quem chama segura o id durante o append
+
+            int index = (oldest + count) % seqs.length;
+            seqs[index] = seq;
+            offsets[index] = pos;
+            lengths[index] = length;
+            count++;
+            writePos = pos + length;
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean overlaps(int index, int pos, int length) {
+        int start = offsets[index];
+        int end = start + lengths[index];
+        return start < pos + length && pos < end;
+    }
+
+    private void evictOldest() {
+        SymbolTable.USERS.release(data.getInt(offsets[oldest]));
+        oldest = (oldest + 1) % seqs.length;
+        count--;
+    }
+
+    @Override
+    public Page before(long beforeSeq, int limit) {
+        lock.lock();
+        try {
+            int last = count - 1;
+            while (last >= 0 && seqs[index(last)] >= beforeSeq) {
+                last--;
+            }
+            int first = Math.max(0, last - limit + 1);
+            if (last < first) {
+                return Page.EMPTY;
+            }
+            List<Frame> page = new ArrayList<>(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                page.add(read(index(i)));
+            }
+            return new Page(seqs[index(first)], page);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame read(int index) {
+        int pos = offsets[index];
+        int userId = data.getInt(pos);
+        byte[] text = new byte[lengths[index] - 4];
+        data.get(pos + 4, text);
+        return Frame.chat(userId, roomId, new String(text, StandardCharsets.UTF_8));
+    }
+
+    private int index(int i) {
+        return (oldest + i) % seqs.length;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (count > 0) {
+                evictOldest();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
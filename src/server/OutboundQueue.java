@@ -0,0 +1,202 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fila de saída limitada de um cliente. Quem faz broadcast só enfileira;
+// o envio para o socket fica com o writer do próprio cliente.
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        DROP_OLDEST, // descarta a mensagem de chat mais antiga
+        DISCONNECT,  // desconecta o cliente lento
+        BLOCK        // espera espaço até o timeout e então desconecta; só nos modos threads e virtual
+    }
+
+    private final ArrayDeque<Frame> items = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int highWatermark;
+    private volatile boolean closed;
+    private Runnable onAvailable; // avisado quando a fila deixa de estar vazia (modo NIO)
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    public void setOnAvailable(Runnable onAvailable) {
+        this.onAvailable = onAvailable;
+    }
+
+    // Retorna false quando o cliente deve ser desconectado por não acompanhar o ritmo
+    public boolean offer(Frame frame) {
+        boolean wasEmpty;
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (items.size() >= capacity && !makeRoom()) {
+                return false;
+            }
+            wasEmpty = items.isEmpty();
+            items.addLast(frame);
+            if (items.size() > highWatermark) {
+                highWatermark = items.size();
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        Runnable listener = onAvailable;
+        if (wasEmpty && listener != null) {
+            listener.run();
+        }
+        return true;
+    }
+
+    // Chamado com o lock e a fila cheia
+    private boolean makeRoom() {
+        switch (policy) {
+            case DROP_OLDEST:
+                Iterator<Frame> it = items.iterator();
+                while (it.hasNext()) {
+                    if (it.next().isDroppable()) {
+                        it.remove();
+                        dropped.incrementAndGet();
+                        return true;
+                    }
+                }
+                // Só há respostas de controle na fila: o cliente não está lendo nada
+                return false;
+            case BLOCK:
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+                    while (items.size() >= capacity && !closed) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DISCONNECT:
+            default:
+                return false;
+        }
+    }
+
+    // Retorna null se a fila foi fechada
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame poll() {
+        lock.lock();
+        try {
+            return items.isEmpty() ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Espera até timeoutNanos por um frame; null se o tempo acabou ou a fila foi fechada
+    public Frame poll(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = timeoutNanos;
+            while (items.isEmpty() && !closed) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return closed ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame removeFirst() {
+        Frame frame = items.pollFirst();
+        notFull.signal();
+        return frame;
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return items.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Fecha e devolve o que ainda não foi escrito (a sessão pode ser retomada em outra conexão)
+    public List<Frame> drainAndClose() {
+        lock.lock();
+        try {
+            List<Frame> pending = new ArrayList<>(items);
+            closed = true;
+            items.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            items.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+// Conexão de saída para outro nó do cluster. Quem envia só enfileira; uma thread escreve em lote
+// (flush quando a fila esvazia) e reconecta sozinha quando o par cai ou ainda não subiu.
+public class PeerLink {
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final long RETRY_MS = 1000;
+
+    private final String peerId;
+    private final InetSocketAddress address;
+    private final Supplier<List<String>> handshake; // primeiras linhas de cada conexão nova
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean running = true;
+    private volatile boolean connected;
+    private volatile Socket socket;
+    private Thread writer;
+
+    public PeerLink(String peerId, InetSocketAddress address, Supplier<List<String>> handshake) {
+        this.peerId = peerId;
+        this.address = address;
+        this.handshake = handshake;
+    }
+
+    public void start() {
+        writer = new Thread(this::run, "cluster-link-" + peerId);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Retorna false se a fila está cheia (par lento ou fora do ar há muito tempo)
+    public boolean send(String line) {
+        return queue.offer(line);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public String getPeerId() {
+        return peerId;
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>();
+        while (running) {
+            try (Socket s = new Socket()) {
+                s.connect(address, (int) RETRY_MS);
+                s.setTcpNoDelay(true);
+                socket = s;
+                Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                for (String line : handshake.get()) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                connected = true;
+                System.out.println("Cluster: conectado ao nó " + peerId + " (" + address + ")");
+
+                while (running) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for (String line : batch) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                    batch.clear();
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (connected) {
+                    System.err.println("Cluster: conexão com o nó " + peerId + " perdida: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            batch.clear();
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // já fechado
+            }
+        }
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+}
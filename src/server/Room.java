@@ -1,66 +1,202 @@
 package server;
 
+import protocol.Reply;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Room {
     private final String name;
-    private final List<ClientHandler> users;
+    private final int id; // usado no roteamento interno e no protocolo binário
+    private final MemberSet users;
+    private final RoomHistory history; // null quando o histórico está desativado
+    private final Metrics.RoomStats stats;
+    private final TokenBucket budget; // null quando a sala não tem limite de mensagens
+    private final SearchIndex search; // null quando a busca está desativada
+    // Ordem única da sala: o número de sequência no histórico e a entrega a cada membro acontecem juntos,
+    // então todos os membros recebem as mensagens na mesma ordem, que é a do HISTORICO. Entregar é só
+    // enfileirar na saída de cada membro (sem esperar, exceto com a política BLOCK nos modos com threads).
+    // ReentrantLock e não synchronized: não prende a carrier thread no modo virtual.
+    private final ReentrantLock order = new ReentrantLock();
+    private volatile int clusterUserCount = -1; // modo cluster: membros em todos os nós, informado pelo dono da sala
+
+    public Room(String nome, int id) {
+        this(nome, id, null, null, null, null);
+    }
 
-    public Room(String nome) {
+    public Room(String nome, int id, RoomHistory history, Metrics metrics, TokenBucket budget, SearchIndex search) {
         this.name = nome;
-        this.users = new ArrayList<>();
+        this.id = id;
+        this.users = new MemberSet();
+        this.history = history;
+        this.stats = new Metrics.RoomStats(metrics);
+        this.budget = budget;
+        this.search = search;
+    }
+
+    public boolean addUser(ClientHandler user){
+        if (users.add(user)) {
+            broadcastToOthers(joinedNotice(user.getUsername()), user);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean removeUser(ClientHandler user) {
+        if (users.remove(user)) {
+            broadcastToOthers(leftNotice(user.getUsername()), user);
+            return true;
+        }
+        return false;
     }
 
-    public synchronized void addUser(ClientHandler user){
-        users.add(user);
-        broadcastToOthers("INFO:" + user.getUsername() + " entrou na sala.", user);
+    // Avisos de entrada e saída; no modo cluster o mesmo texto é repassado aos outros nós
+    public static String joinedNotice(String username) {
+        return "INFO:" + username + " entrou na sala.";
     }
 
-    public synchronized void removeUser(ClientHandler user) {
-        users.remove(user);
-        broadcastToOthers("INFO:" + user.getUsername() + " saiu da sala.", user);
+    public static String leftNotice(String username) {
+        return "INFO:" + username + " saiu da sala.";
     }
 
-    public synchronized void broadcastToOthers(String message, ClientHandler sender) {
-        for (ClientHandler user : users) {
-            if (user != sender && user.isConnected()) {
-                user.sendMessage(message);
-            }
+    // Sessão retomada numa conexão nova: sem avisos de saída/entrada para os outros membros
+    public boolean replaceUser(ClientHandler oldUser, ClientHandler newUser) {
+        return users.replace(oldUser, newUser);
+    }
+
+    public void broadcastToOthers(String message, ClientHandler sender) {
+        broadcast(Frame.control(message), sender);
+    }
+
+    // Conferido antes do fan-out: 0 se a mensagem pode ser enviada, senão os nanossegundos até
+    // a sala aceitar outra. Administradores não consomem o orçamento da sala.
+    public long acquireBudget(ClientHandler sender) {
+        if (budget == null || sender.isAdmin()) {
+            return 0;
+        }
+        long wait = budget.tryAcquire();
+        if (wait > 0) {
+            stats.recordThrottle();
         }
+        return wait;
     }
 
-    public synchronized void broadcastChatMessage(String message, ClientHandler sender) {
-        String formattedMessage = "MSG:" + sender.getUsername() + ":" + name + ":" + message;
-        broadcastToOthers(formattedMessage, sender);
+    public void broadcastChatMessage(String message, ClientHandler sender) {
+        Frame frame = Frame.chat(sender.getUserId(), id, message);
+        if (search != null) {
+            search.add(id, frame.getUsername(), message); // só enfileira; o indexador roda em outra thread
+        }
+        appendAndBroadcast(frame, sender);
     }
 
+    // Mensagem vinda de outro nó do cluster: o remetente, se estiver conectado a este nó, não a recebe
+    public void deliverChatMessage(int userId, String message) {
+        Frame frame = Frame.chat(userId, id, message);
+        if (search != null) {
+            search.add(id, frame.getUsername(), message);
+        }
+        appendAndBroadcast(frame, users.get(userId));
+    }
 
-    public synchronized String getName() {
-        return name;
+    private void appendAndBroadcast(Frame frame, ClientHandler sender) {
+        order.lock();
+        try {
+            if (history != null) {
+                history.append(frame);
+            }
+            broadcast(frame, sender);
+        } finally {
+            order.unlock();
+        }
+    }
+
+    // Mensagem recuperada do log de salas: só vai para o histórico e para o índice de busca
+    public void restoreChatMessage(int userId, String message, long timestamp) {
+        Frame frame = Frame.chat(userId, id, message);
+        if (history != null) {
+            history.append(frame);
+        }
+        if (search != null) {
+            search.restore(id, frame.getUsername(), timestamp, message);
+        }
+    }
+
+    // Sala encerrada: o histórico solta o que segura (no histórico fora do heap, os ids dos remetentes)
+    public void close() {
+        if (history != null) {
+            history.close();
+        }
     }
 
-    public synchronized List<ClientHandler> getUsers() {
-        return new ArrayList<>(users);
+    // Cabeçalho HISTORICO seguido das mensagens, num único frame (uma escrita no socket)
+    public Frame historyBatch(long beforeSeq, int limit) {
+        RoomHistory.Page page = history != null ? history.before(beforeSeq, limit) : RoomHistory.Page.EMPTY;
+        List<Frame> frames = new ArrayList<>(page.frames.size() + 1);
+        frames.add(Frame.of(Reply.HISTORICO, page.firstSeq + ":" + page.frames.size()));
+        frames.addAll(page.frames);
+        return Frame.batch(frames);
     }
 
-    public synchronized ClientHandler getUser(String name){
-        for(ClientHandler u : users){
-            if(u.getUsername().equals(name)){
-                return u;
+    // O Frame é codificado uma vez e compartilhado por todos. Com o lock de ordem da sala (reentrante:
+    // appendAndBroadcast já o tem), para que avisos e mensagens cheguem a todos na mesma ordem
+    public void broadcast(Frame frame, ClientHandler sender) {
+        order.lock();
+        try {
+            long start = System.nanoTime();
+            int delivered = 0;
+            for (ClientHandler user : users.snapshot()) {
+                if (user != sender && user.acceptsFrames()) {
+                    user.sendFrame(frame);
+                    delivered++;
+                }
             }
+            stats.recordBroadcast(delivered, System.nanoTime() - start);
+        } finally {
+            order.unlock();
         }
-        return null;
     }
 
-    public synchronized int getUserCount() {
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Metrics.RoomStats getStats() {
+        return stats;
+    }
+
+    // Visão somente leitura do snapshot atual (sem cópia)
+    public List<ClientHandler> getUsers() {
+        return Collections.unmodifiableList(Arrays.asList(users.snapshot()));
+    }
+
+    public ClientHandler getUser(int userId){
+        return users.get(userId);
+    }
+
+    // Membros conectados a este nó
+    public int getUserCount() {
         return users.size();
     }
 
-    public synchronized boolean hasUser(String nome) {
-        for (ClientHandler u : users) {
-            if (u.getUsername().equals(nome)) return true;
-        }
-        return false;
+    // Membros da sala no cluster inteiro (o que LISTAR_SALAS mostra); fora do cluster, os deste nó
+    public int getTotalUserCount() {
+        int total = clusterUserCount;
+        return total >= 0 ? total : users.size();
+    }
+
+    public void setClusterUserCount(int count) {
+        clusterUserCount = count;
+    }
+
+    public boolean hasUser(int userId) {
+        return users.contains(userId);
     }
-}
\ No newline at end of file
+}
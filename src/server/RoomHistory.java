@@ -0,0 +1,43 @@
+package server;
+
+import java.util.Collections;
+import java.util.List;
+
+// Histórico recente de mensagens de chat de uma sala, limitado por quantidade e por bytes.
+// Cada mensagem recebe um número de sequência crescente dentro da sala.
+public interface RoomHistory {
+
+    // Trecho do histórico: mensagens em ordem, a primeira com o número firstSeq
+    final class Page {
+        public static final Page EMPTY = new Page(0, Collections.emptyList());
+
+        public final long firstSeq;
+        public final List<Frame> frames;
+
+        public Page(long firstSeq, List<Frame> frames) {
+            this.firstSeq = firstSeq;
+            this.frames = frames;
+        }
+    }
+
+    // Retorna o número de sequência da mensagem
+    long append(Frame chatFrame);
+
+    // Até limit mensagens com sequência menor que beforeSeq (Long.MAX_VALUE = as mais recentes)
+    Page before(long beforeSeq, int limit);
+
+    int size();
+
+    // Sala encerrada; o que for acrescentado depois é ignorado
+    void close();
+
+    static RoomHistory create(ServerConfig config, int roomId) {
+        if (config.getHistoryMessages() <= 0) {
+            return null;
+        }
+        if (config.isHistoryOffHeap()) {
+            return new OffHeapRoomHistory(config.getHistoryMessages(), config.getHistoryBytes(), roomId);
+        }
+        return new HeapRoomHistory(config.getHistoryMessages(), config.getHistoryBytes());
+    }
+}
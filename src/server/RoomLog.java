@@ -0,0 +1,337 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Log de eventos das salas, só de acréscimo, em segmentos de tamanho fixo mapeados em memória.
+// Acrescentar é só uma cópia para o MappedByteBuffer; o fsync (force) é feito em grupo por uma
+// thread de fundo a cada intervalo, então o caminho do chat nunca espera o disco.
+//
+// Registro: [int tamanho do corpo][int crc32 do corpo][corpo]
+// Corpo: [byte tipo][long timestamp][sala][usuário][texto], textos como [varint tamanho][UTF-8]
+// Um tamanho 0 marca o fim dos dados do segmento (o arquivo novo vem zerado).
+public class RoomLog {
+    public enum EventType {
+        CREATE, CLOSE, JOIN, LEAVE, KICK, MESSAGE
+    }
+
+    // Recebe os eventos lidos dos segmentos na inicialização
+    public interface Replayer {
+        void onEvent(EventType type, long timestamp, String room, String user, String text);
+    }
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long retentionMs;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final List<Path> segments = new ArrayList<>(); // do mais antigo para o mais novo
+    private final List<MappedByteBuffer> toForce = new ArrayList<>(); // segmentos fechados ainda sem fsync
+    private MappedByteBuffer current;
+    private long nextSegmentNumber = 1;
+    private volatile boolean dirty;
+    private Collection<Room> checkpointSource; // salas vivas, regravadas no início de cada segmento novo
+    private Path checkpointStart; // primeiro segmento do último checkpoint completo; null antes do primeiro
+
+    public RoomLog(ServerConfig config) throws IOException {
+        this.dir = Paths.get(config.getLogDir());
+        this.segmentSize = config.getLogSegmentBytes();
+        this.maxSegments = config.getLogMaxSegments();
+        this.retentionMs = TimeUnit.HOURS.toMillis(config.getLogRetentionHours());
+        Files.createDirectories(dir);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        if (!segments.isEmpty()) {
+            nextSegmentNumber = segmentNumber(segments.get(segments.size() - 1)) + 1;
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "room-log-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, config.getLogFsyncMs());
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void setCheckpointSource(Collection<Room> rooms) {
+        this.checkpointSource = rooms;
+    }
+
+    // Lê todos os segmentos retidos em ordem e depois abre um segmento novo para escrita
+    public void replay(Replayer replayer) throws IOException {
+        int events = 0;
+        for (Path segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                events += readSegment(data, replayer);
+            }
+        }
+        System.out.println("Log de salas: " + events + " eventos recuperados de " + segments.size() + " segmentos");
+
+        lock.lock();
+        try {
+            roll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int readSegment(ByteBuffer data, Replayer replayer) {
+        int events = 0;
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= HEADER) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break; // fim dos dados ou registro incompleto
+            }
+            ByteBuffer body = data.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Log de salas: registro corrompido, ignorando o resto do segmento");
+                break;
+            }
+            data.position(data.position() + length);
+            try {
+                EventType type = EventType.values()[body.get()];
+                long timestamp = body.getLong();
+                replayer.onEvent(type, timestamp, readString(body), readString(body), readString(body));
+                events++;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                System.err.println("Log de salas: registro inválido ignorado");
+            }
+        }
+        return events;
+    }
+
+    public void append(EventType type, String room, String user, String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(type.ordinal());
+        long now = System.currentTimeMillis();
+        for (int i = 7; i >= 0; i--) {
+            out.write((int) (now >>> (i * 8)));
+        }
+        writeString(out, room);
+        writeString(out, user);
+        writeString(out, text);
+        byte[] body = out.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        lock.lock();
+        try {
+            if (current == null) {
+                return; // log fechado ou ainda não aberto
+            }
+            if (current.remaining() < HEADER + body.length + 4) {
+                if (HEADER + body.length + 4 > segmentSize) {
+                    System.err.println("Log de salas: evento maior que um segmento, descartado");
+                    return;
+                }
+                roll();
+            }
+            current.putInt(body.length);
+            current.putInt((int) crc.getValue());
+            current.put(body);
+            dirty = true;
+        } catch (IOException e) {
+            System.err.println("Log de salas: erro ao abrir novo segmento: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Chamado com o lock: fecha o segmento atual e abre o próximo, começando com um checkpoint das salas.
+    // Um checkpoint que não cabe num segmento continua nos seguintes; só depois de completo ele passa a
+    // ser o limite da retenção (os segmentos dele em diante nunca são apagados)
+    private void roll() throws IOException {
+        openSegment();
+
+        // Salas criadas em segmentos que a retenção apagar continuam existindo após o checkpoint
+        Collection<Room> rooms = checkpointSource;
+        if (rooms != null) {
+            Path start = segments.get(segments.size() - 1);
+            boolean complete = true;
+            for (Room room : rooms) {
+                byte[] body = checkpointBody(room.getName());
+                if (HEADER + body.length + 4 > segmentSize) {
+                    System.err.println("Log de salas: sala maior que um segmento, fora do checkpoint: " + room.getName());
+                    complete = false;
+                    continue;
+                }
+                if (current.remaining() < HEADER + body.length + 4) {
+                    openSegment();
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                current.putInt(body.length);
+                current.putInt((int) crc.getValue());
+                current.put(body);
+            }
+            if (complete) {
+                checkpointStart = start;
+            } else {
+                System.err.println("Log de salas: checkpoint incompleto em " + start.getFileName()
+                        + "; os segmentos anteriores são mantidos");
+            }
+        }
+        dirty = true;
+        applyRetention();
+    }
+
+    private void openSegment() throws IOException {
+        if (current != null) {
+            toForce.add(current);
+        }
+        Path path = dir.resolve(String.format("%s%012d%s", PREFIX, nextSegmentNumber++, SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.add(path);
+    }
+
+    private byte[] checkpointBody(String roomName) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.write(EventType.CREATE.ordinal());
+        long now = System.currentTimeMillis();
+        for (int i = 7; i >= 0; i--) {
+            out.write((int) (now >>> (i * 8)));
+        }
+        writeString(out, roomName);
+        writeString(out, "");
+        writeString(out, "");
+        return out.toByteArray();
+    }
+
+    // Chamado com o lock. Nunca apaga o segmento atual nem o último checkpoint completo.
+    private void applyRetention() {
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Path oldest = segments.get(0);
+            if (oldest.equals(checkpointStart)) {
+                break;
+            }
+            boolean tooMany = maxSegments > 0 && segments.size() > maxSegments;
+            boolean tooOld = false;
+            if (retentionMs > 0) {
+                try {
+                    tooOld = now - Files.getLastModifiedTime(oldest).toMillis() > retentionMs;
+                } catch (IOException e) {
+                    tooOld = false;
+                }
+            }
+            if (!tooMany && !tooOld) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(oldest);
+                System.out.println("Log de salas: segmento removido pela retenção: " + oldest.getFileName());
+            } catch (IOException e) {
+                System.err.println("Log de salas: erro ao remover segmento: " + e.getMessage());
+                break;
+            }
+            segments.remove(0);
+        }
+    }
+
+    // Group commit: um único force cobre todos os eventos acrescentados desde o último
+    private void flush() {
+        List<MappedByteBuffer> closed;
+        MappedByteBuffer active;
+        lock.lock();
+        try {
+            if (!dirty && toForce.isEmpty()) {
+                return;
+            }
+            dirty = false;
+            closed = new ArrayList<>(toForce);
+            toForce.clear();
+            active = current;
+        } finally {
+            lock.unlock();
+        }
+        for (MappedByteBuffer segment : closed) {
+            segment.force();
+        }
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    public void close() {
+        flusher.shutdown();
+        flush();
+        lock.lock();
+        try {
+            current = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,49 +1,287 @@
 package server;
 
+import protocol.Reply;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class RoomManager {
-    private final Map<String, Room> rooms;
+    private final Map<String, Room> rooms;  // por nome: só para comandos que chegam com o nome
+    private final IdTable<Room> roomsById = new IdTable<>(); // por id: caminho de cada mensagem
+    private final ServerConfig config;
+    private final Metrics metrics;
+    private final SearchIndex search; // null quando a busca está desativada
+    private volatile RoomLog log; // null quando o log de salas está desativado
+    // Versões da lista de salas: roomsVersion muda quando uma sala é criada/encerrada (a ordem muda),
+    // membersVersion a cada entrada/saída (só as contagens mudam)
+    private final AtomicLong roomsVersion = new AtomicLong();
+    private final AtomicLong membersVersion = new AtomicLong();
+    private final AtomicReference<RoomList> roomList = new AtomicReference<>(new RoomList(-1, -1, null));
+
+    // Lista de salas de um par de versões, compartilhada por todos os LISTAR_SALAS. Cada parte é montada
+    // na primeira vez que alguém precisa dela e uma vez só: quem chega durante a montagem espera e recebe
+    // o mesmo resultado. Se só as contagens mudaram, a ordem da lista anterior é reaproveitada sem ordenar
+    // de novo, e cada página é refeita só quando pedida.
+    private final class RoomList {
+        final long roomsVersion;
+        final long membersVersion;
+        private RoomList sameRooms; // lista anterior com as mesmas salas; solta depois de montar
+        private AtomicReferenceArray<Frame> pages; // escrito antes de sorted, que o publica
+        private volatile Room[] sorted;
+        private volatile String text;
+
+        RoomList(long roomsVersion, long membersVersion, RoomList sameRooms) {
+            this.roomsVersion = roomsVersion;
+            this.membersVersion = membersVersion;
+            this.sameRooms = sameRooms;
+        }
+
+        Room[] sorted() {
+            Room[] current = sorted;
+            if (current == null) {
+                synchronized (this) {
+                    current = sorted;
+                    if (current == null) {
+                        current = sameRooms != null ? sameRooms.sorted() : sortRooms();
+                        sameRooms = null;
+                        pages = new AtomicReferenceArray<>(pageCount(current.length));
+                        sorted = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        // Página a partir de 1, ou null se não existe
+        Frame page(int page) {
+            Room[] rooms = sorted();
+            if (page < 1 || page > pages.length()) {
+                return null;
+            }
+            Frame frame = pages.get(page - 1);
+            if (frame == null) {
+                synchronized (this) {
+                    frame = pages.get(page - 1);
+                    if (frame == null) {
+                        frame = buildPage(rooms, page, pages.length());
+                        pages.set(page - 1, frame);
+                    }
+                }
+            }
+            return frame;
+        }
+
+        String text() {
+            String current = text;
+            if (current == null) {
+                synchronized (this) {
+                    current = text;
+                    if (current == null) {
+                        Room[] rooms = sorted();
+                        current = entries(rooms, 0, rooms.length);
+                        text = current;
+                    }
+                }
+            }
+            return current;
+        }
+    }
 
     public RoomManager() {
+        this(new ServerConfig(), new Metrics());
+    }
+
+    public RoomManager(ServerConfig config, Metrics metrics) {
+        this(config, metrics, null);
+    }
+
+    public RoomManager(ServerConfig config, Metrics metrics, SearchIndex search) {
         this.rooms = new ConcurrentHashMap<>();
+        this.config = config;
+        this.metrics = metrics;
+        this.search = search;
     }
 
-    public synchronized boolean createRoom(String name) {
-        if (rooms.containsKey(name)) {
+    // Definido depois da recuperação, para que os eventos lidos do log não sejam gravados de novo
+    public void setLog(RoomLog log) {
+        this.log = log;
+    }
+
+    // Sem lock no manager: a criação é atômica no mapa (computeIfAbsent)
+    public boolean createRoom(String name) {
+        if (!addRoom(name)) {
             return false; // Sala já existe
         }
-        rooms.put(name, new Room(name));
+        log(RoomLog.EventType.CREATE, name, "", "");
         System.out.println("Sala '" + name + "' criada");
         return true;
     }
 
-    public synchronized boolean endRoom(String name) {
+    private boolean addRoom(String name) {
+        if (rooms.containsKey(name)) {
+            return false;
+        }
+        boolean[] created = new boolean[1];
+        rooms.computeIfAbsent(name, n -> {
+            created[0] = true;
+            int id = SymbolTable.ROOMS.acquire(n); // solto quando a sala é encerrada
+            Room room = new Room(n, id, RoomHistory.create(config, id), metrics, config.newRoomLimiter(), search);
+            roomsById.set(id, room);
+            return room;
+        });
+        if (created[0]) {
+            roomsVersion.incrementAndGet();
+        }
+        return created[0];
+    }
+
+    public boolean endRoom(String name) {
+        return endRoom(name, System.currentTimeMillis());
+    }
+
+    // closedAt: na recuperação, o horário do evento no log
+    public boolean endRoom(String name, long closedAt) {
         Room room = rooms.remove(name);
+        if (room != null) {
+            roomsById.remove(room.getId(), room);
+            if (search != null) {
+                search.roomClosed(room.getId(), closedAt);
+            }
+            // Os membros deixam de estar inscritos; nenhuma varredura por outras salas
+            for (ClientHandler member : room.getUsers()) {
+                member.getSubscriptions().remove(room.getId());
+            }
+            room.close();
+            SymbolTable.ROOMS.release(room.getId());
+            roomsVersion.incrementAndGet();
+            log(RoomLog.EventType.CLOSE, name, "", "");
+        }
         return room != null;
     }
 
+    // Modo cluster: total de membros da sala em todos os nós, publicado pelo dono dela
+    public void setClusterUserCount(String roomName, int count) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            room.setClusterUserCount(count);
+            membersVersion.incrementAndGet();
+        }
+    }
+
+    // Recuperação a partir do log: recria salas e histórico sem gravar novos eventos
+    public void restoreRoom(String name) {
+        addRoom(name);
+    }
+
+    public void restoreMessage(String roomName, String username, String message, long timestamp) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            // Ninguém está conectado na recuperação: o id só precisa valer até o histórico guardar a mensagem
+            int userId = SymbolTable.USERS.acquire(username);
+            try {
+                room.restoreChatMessage(userId, message, timestamp);
+            } finally {
+                SymbolTable.USERS.release(userId);
+            }
+        }
+    }
+
+    // Salas vivas (visão sem cópia), usadas no checkpoint de cada segmento novo do log
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+
+    private void log(RoomLog.EventType type, String roomName, String username, String text) {
+        RoomLog current = log;
+        if (current != null) {
+            current.append(type, roomName, username, text);
+        }
+    }
+
     public Room getRoom(String name) {
         return rooms.get(name);
     }
 
-    public synchronized String listRooms(){
-        StringBuilder sb = new StringBuilder();
-        for(Map.Entry<String, Room> entry : rooms.entrySet()){
-            String name = entry.getKey();
-            int count = entry.getValue().getUserCount();
-            sb.append(name).append("|").append(count).append(",");
+    public Room getRoom(int roomId) {
+        return roomsById.get(roomId);
+    }
+
+    // 0 se não há sala com esse nome (um nome vindo do cliente não cria id)
+    public int getRoomId(String name) {
+        return SymbolTable.ROOMS.find(name);
+    }
+
+    public String listRooms(){
+        return currentRoomList().text();
+    }
+
+    // Página (a partir de 1) da lista de salas, já codificada; null se a página não existe
+    public Frame getRoomListPage(int page) {
+        return currentRoomList().page(page);
+    }
+
+    // Uma lista nova só é publicada por compareAndSet: entre chamadas concorrentes numa versão nova, uma
+    // publica e as outras recebem a mesma lista (a montagem acontece dentro dela, uma vez)
+    private RoomList currentRoomList() {
+        while (true) {
+            RoomList cached = roomList.get();
+            long rooms = roomsVersion.get();
+            long members = membersVersion.get();
+            if (cached.roomsVersion == rooms && cached.membersVersion == members) {
+                return cached;
+            }
+            RoomList next = new RoomList(rooms, members, cached.roomsVersion == rooms ? cached : null);
+            if (roomList.compareAndSet(cached, next)) {
+                return next;
+            }
         }
+    }
+
+    // Ordem estável entre páginas: por nome
+    private Room[] sortRooms() {
+        Room[] sorted = rooms.values().toArray(new Room[0]);
+        Arrays.sort(sorted, Comparator.comparing(Room::getName));
+        return sorted;
+    }
 
-        if(sb.length() > 0 ){
-            sb.setLength(sb.length() - 1);
+    private int pageCount(int roomCount) {
+        int pageSize = config.getRoomsPageSize();
+        return Math.max(1, (roomCount + pageSize - 1) / pageSize);
+    }
+
+    private Frame buildPage(Room[] sorted, int page, int pageCount) {
+        int pageSize = config.getRoomsPageSize();
+        int from = (page - 1) * pageSize;
+        Frame list = Frame.of(Reply.SALAS, entries(sorted, from, Math.min(sorted.length, from + pageSize)));
+        if (pageCount == 1) {
+            return list;
+        }
+        Frame info = Frame.of(Reply.INFO, "Página " + page + " de " + pageCount + " ("
+                + sorted.length + " salas). Use /salas <página> para ver outra.");
+        return Frame.batch(List.of(list, info));
+    }
+
+    // "nome|usuarios,..." com as contagens lidas agora
+    private static String entries(Room[] sorted, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(sorted[i].getName()).append('|').append(sorted[i].getTotalUserCount());
         }
         return sb.toString();
     }
 
-    public String getUsersInRoom(String roomName) {
-        Room room = rooms.get(roomName);
+    public String getUsersInRoom(int roomId) {
+        Room room = roomsById.get(roomId);
         if (room == null) {
             return "";
         }
@@ -63,33 +301,63 @@ public class RoomManager {
         return sb.toString();
     }
 
+    // Inscreve o usuário e torna a sala a ativa da conexão; ele continua nas salas em que já estava
     public boolean enterRoom(String roomName, ClientHandler user){
         Room room = rooms.get(roomName);
         if(room != null){
             room.addUser(user);
+            user.getSubscriptions().add(room.getId());
+            if (roomsById.get(room.getId()) != room) {
+                // Encerrada no meio da entrada: a inscrição ficaria com um id que outra sala pode receber
+                user.getSubscriptions().remove(room.getId());
+                return false;
+            }
+            membersVersion.incrementAndGet();
+            log(RoomLog.EventType.JOIN, roomName, user.getUsername(), "");
             return true;
         }
         return false;
     }
 
-    public boolean exitRoom(String roomName, ClientHandler user){
-        Room room = rooms.get(roomName);
+    public boolean exitRoom(int roomId, ClientHandler user){
+        // Mesmo se a sala já foi encerrada: uma entrada concorrente com o encerramento pode ter deixado a inscrição
+        user.getSubscriptions().remove(roomId);
+        Room room = roomsById.get(roomId);
         if(room != null){
             room.removeUser(user);
-            System.out.println(user.getUsername() + " saiu da sala: " + roomName);
+            membersVersion.incrementAndGet();
+            log(RoomLog.EventType.LEAVE, room.getName(), user.getUsername(), "");
+            System.out.println(user.getUsername() + " saiu da sala: " + room.getName());
             return true;
         }
         return false;
     }
 
+    // Sessão retomada: a conexão nova assume as inscrições da antiga, sem avisos de saída e entrada
+    public void transferSubscriptions(ClientHandler from, ClientHandler to) {
+        Subscriptions old = from.getSubscriptions();
+        int active = old.getActive();
+        for (int roomId : old.toArray()) {
+            Room room = roomsById.get(roomId);
+            if (room != null && room.replaceUser(from, to)) {
+                to.getSubscriptions().add(roomId);
+            }
+            old.remove(roomId);
+        }
+        to.getSubscriptions().setActive(active);
+    }
+
     public boolean kickUser(String roomName, String userName){
         Room room = rooms.get(roomName);
         if(room != null){
-            ClientHandler target = room.getUser(userName);
+            // Nome desconhecido resolve para 0, que nunca é membro
+            ClientHandler target = room.getUser(SymbolTable.USERS.find(userName));
             if(target != null){
                 room.removeUser(target);
-                target.setCurrentRoom(null);
+                membersVersion.incrementAndGet();
+                target.getSubscriptions().remove(room.getId());
                 target.sendMessage("INFO:Voce foi expulso da sala '" + roomName + "'.");
+                log(RoomLog.EventType.KICK, roomName, userName, "");
                 return true;
             }
         }
@@ -99,17 +367,41 @@ public class RoomManager {
     public void broadcastToRoom(String roomName, String message, ClientHandler sender){
         Room room = rooms.get(roomName);
         if (room != null) {
-            if (message.startsWith("MSG:")) {
-                // É uma mensagem de chat
-                String[] parts = message.split(":", 4);
-                if (parts.length >= 4) {
-                    String chatMessage = parts[3];
-                    room.broadcastChatMessage(chatMessage, sender);
-                }
-            } else {
-                // Outras mensagens (INFO, etc.)
-                room.broadcastToOthers(message, sender);
+            room.broadcastToOthers(message, sender);
+        }
+    }
+
+    // Mensagens anteriores a beforeSeq, ou null se a sala não existe
+    public Frame getHistory(int roomId, long beforeSeq, int limit) {
+        Room room = roomsById.get(roomId);
+        return room != null ? room.historyBatch(beforeSeq, limit) : null;
+    }
+
+    public void deliverChatMessage(String roomName, String username, String message) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            // O remetente pode não estar neste nó: o id vale durante a entrega (se estiver, é o mesmo id)
+            int userId = SymbolTable.USERS.acquire(username);
+            try {
+                room.deliverChatMessage(userId, message);
+            } finally {
+                SymbolTable.USERS.release(userId);
             }
+            log(RoomLog.EventType.MESSAGE, roomName, username, message);
+        }
+    }
+
+    // 0 se a sala aceita mais uma mensagem de sender, senão os nanossegundos até aceitar
+    public long acquireRoomBudget(int roomId, ClientHandler sender) {
+        Room room = roomsById.get(roomId);
+        return room != null ? room.acquireBudget(sender) : 0;
+    }
+
+    public void broadcastChatMessage(int roomId, String message, ClientHandler sender){
+        Room room = roomsById.get(roomId);
+        if (room != null) {
+            room.broadcastChatMessage(message, sender);
+            log(RoomLog.EventType.MESSAGE, room.getName(), sender.getUsername(), message);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,392 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Índice invertido das mensagens de chat, para BUSCAR. O broadcast só enfileira a mensagem (sem esperar:
+// com a fila cheia ela fica fora do índice e é contada); a thread do indexador separa os termos e grava
+// em lotes no segmento ativo. Segmentos têm tamanho fixo e há no máximo --search-segments deles: quando
+// o ativo enche é selado (e, com --search-dir, vai para um arquivo mapeado) e o mais antigo é descartado.
+// Os arquivos não sobrevivem a um reinício: com o log de salas o índice é refeito na recuperação.
+public class SearchIndex implements Runnable {
+    static final int[] NO_DOCS = new int[0];
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int BATCH = 1024;
+    private static final long BATCH_DELAY_MS = 20; // espera entre lotes: não acorda o indexador a cada mensagem
+    private static final int MIN_TERM = 2;  // termos menores não entram no índice
+    private static final int MAX_TERM = 32; // e os maiores são cortados
+    private static final int MAX_QUERY_TERMS = 8;
+
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Path dir; // null: segmentos selados ficam no heap
+    private final Metrics metrics;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Do mais antigo ao ativo (o último); trocado inteiro pelo indexador, lido sem lock pelas buscas
+    private volatile SearchSegment[] segments;
+    private MemorySearchSegment active;
+    private long nextFile;
+    // Sala encerrada: mensagens anteriores não aparecem numa sala que receba o mesmo id depois
+    private final ConcurrentHashMap<Integer, Long> closedAt = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // O remetente vai pelo nome: até o indexador chegar nele, o id pode ter sido solto e reaproveitado
+    private static final class Entry {
+        final int room;
+        final String user;
+        final long time;
+        final String text;
+
+        Entry(int room, String user, long time, String text) {
+            this.room = room;
+            this.user = user;
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+    // Termos normalizados (sem acento, minúsculos); os terminados em * são prefixos
+    public static final class Query {
+        final String[] terms;
+        final boolean[] prefix;
+        final int room;
+        final long from;
+        final long to;
+
+        Query(String[] terms, boolean[] prefix, int room, long from, long to) {
+            this.terms = terms;
+            this.prefix = prefix;
+            this.room = room;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public static final class Hit {
+        public final int score; // quantos termos da consulta a mensagem contém
+        public final long time;
+        public final int user;
+        public final String text;
+
+        Hit(int score, long time, int user, String text) {
+            this.score = score;
+            this.time = time;
+            this.user = user;
+            this.text = text;
+        }
+    }
+
+    // Os limit melhores: mais termos encontrados e, no empate, os mais recentes
+    public static final class Hits {
+        private static final Comparator<Candidate> ORDER =
+                Comparator.<Candidate>comparingInt(c -> c.score).thenComparingLong(c -> c.time);
+        private final int limit;
+        private final PriorityQueue<Candidate> best = new PriorityQueue<>(ORDER); // o pior no topo
+
+        Hits(int limit) {
+            this.limit = limit;
+        }
+
+        void offer(SearchSegment segment, int doc, int score, long time) {
+            if (best.size() < limit) {
+                best.add(new Candidate(segment, doc, score, time));
+            } else if (score > best.peek().score || (score == best.peek().score && time > best.peek().time)) {
+                best.poll();
+                best.add(new Candidate(segment, doc, score, time));
+            }
+        }
+
+        // Só as mensagens que entraram no resultado têm o texto lido
+        List<Hit> toList() {
+            List<Candidate> sorted = new ArrayList<>(best);
+            sorted.sort(ORDER.reversed());
+            List<Hit> hits = new ArrayList<>(sorted.size());
+            for (Candidate c : sorted) {
+                hits.add(new Hit(c.score, c.time, c.segment.user(c.doc), c.segment.text(c.doc)));
+            }
+            return hits;
+        }
+    }
+
+    private static final class Candidate {
+        final SearchSegment segment;
+        final int doc;
+        final int score;
+        final long time;
+
+        Candidate(SearchSegment segment, int doc, int score, long time) {
+            this.segment = segment;
+            this.doc = doc;
+            this.score = score;
+            this.time = time;
+        }
+    }
+
+    public SearchIndex(ServerConfig config, Metrics metrics) {
+        this.segmentSize = config.getSearchSegmentMessages();
+        this.maxSegments = config.getSearchSegments();
+        this.metrics = metrics;
+        this.dir = config.getSearchDir() != null ? prepareDir(Paths.get(config.getSearchDir())) : null;
+        this.active = new MemorySearchSegment(segmentSize);
+        this.segments = new SearchSegment[]{active};
+        this.thread = new Thread(this, "search-indexer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Arquivos de uma execução anterior não valem mais (os ids de salas e usuários são desta execução)
+    private static Path prepareDir(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "*.idx")) {
+                for (Path file : old) {
+                    Files.delete(file);
+                }
+            }
+            return dir;
+        } catch (IOException e) {
+            System.err.println("Erro no diretório do índice de busca, segmentos ficam na memória: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Chamado no broadcast: nunca espera
+    public void add(int room, String user, String text) {
+        if (!queue.offer(new Entry(room, user, System.currentTimeMillis(), text))) {
+            metrics.searchDropped();
+        }
+    }
+
+    // Recuperação do log de salas: ainda não há chat, então espera o indexador em vez de perder mensagens
+    public void restore(int room, String user, long time, String text) {
+        try {
+            queue.put(new Entry(room, user, time, text));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void roomClosed(int room, long time) {
+        closedAt.merge(room, time, Math::max);
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        List<String[]> tokens = new ArrayList<>(BATCH);
+        int[] users = new int[BATCH];
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, BATCH - 1);
+            // A separação dos termos fica fora do lock: as buscas no segmento ativo esperam só a gravação
+            // Cada mensagem no índice segura o id do remetente, solto quando o segmento é descartado
+            for (int j = 0; j < batch.size(); j++) {
+                Entry entry = batch.get(j);
+                tokens.add(tokenize(entry.text));
+                users[j] = entry.user != null ? SymbolTable.USERS.acquire(entry.user) : 0;
+            }
+            int i = 0;
+            while (i < batch.size()) {
+                MemorySearchSegment segment = active;
+                synchronized (segment) {
+                    for (; i < batch.size() && !segment.isFull(); i++) {
+                        Entry entry = batch.get(i);
+                        segment.add(entry.room, users[i], entry.time, entry.text, tokens.get(i));
+                    }
+                }
+                if (segment.isFull()) {
+                    seal(segment);
+                }
+            }
+            metrics.searchIndexed(batch.size());
+            boolean full = batch.size() == BATCH;
+            batch.clear();
+            tokens.clear();
+            if (!full) {
+                try {
+                    Thread.sleep(BATCH_DELAY_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Troca o ativo por um novo, grava o selado se houver diretório e descarta o mais antigo
+    private void seal(MemorySearchSegment full) {
+        SearchSegment sealed = full;
+        if (dir != null) {
+            Path file = dir.resolve(String.format("%08d.idx", nextFile++));
+            try {
+                full.writeTo(file);
+                sealed = new FileSearchSegment(file);
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar segmento do índice de busca, mantido na memória: " + e.getMessage());
+            }
+        }
+        active = new MemorySearchSegment(segmentSize);
+        SearchSegment[] current = segments;
+        int keep = Math.min(current.length, maxSegments - 1); // selados mantidos, contando este
+        SearchSegment[] next = new SearchSegment[keep + 1];
+        int dropped = current.length - keep;
+        System.arraycopy(current, dropped, next, 0, keep - 1);
+        next[keep - 1] = sealed;
+        next[keep] = active;
+        segments = next;
+        for (int d = 0; d < dropped; d++) {
+            for (int doc = 0; doc < current[d].size(); doc++) {
+                SymbolTable.USERS.release(current[d].user(doc));
+            }
+            current[d].delete();
+        }
+    }
+
+    // Consulta em texto livre: palavras separadas por espaço, "pre*" para prefixo
+    public List<Hit> search(int room, String text, long from, long to, int limit) {
+        String[] raw = text.trim().split("\\s+");
+        List<String> terms = new ArrayList<>();
+        List<Boolean> prefixes = new ArrayList<>();
+        for (String word : raw) {
+            boolean prefix = word.endsWith("*");
+            for (String term : tokenize(prefix ? word.substring(0, word.length() - 1) : word)) {
+                if (terms.size() < MAX_QUERY_TERMS && !terms.contains(term)) {
+                    terms.add(term);
+                    prefixes.add(prefix);
+                }
+            }
+        }
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        boolean[] prefix = new boolean[terms.size()];
+        for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = prefixes.get(i);
+        }
+        Long closed = closedAt.get(room);
+        if (closed != null) {
+            from = Math.max(from, closed);
+        }
+        Query query = new Query(terms.toArray(new String[0]), prefix, room, from, to <= 0 ? Long.MAX_VALUE : to);
+        Hits hits = new Hits(limit);
+        SearchSegment[] current = segments;
+        for (int s = current.length - 1; s >= 0; s--) {
+            SearchSegment segment = current[s];
+            if (segment.size() == 0 || segment.getMaxTime() < query.from || segment.getMinTime() > query.to) {
+                continue;
+            }
+            if (segment == current[current.length - 1]) {
+                synchronized (segment) {
+                    search(segment, query, hits);
+                }
+            } else {
+                search(segment, query, hits);
+            }
+        }
+        return hits.toList();
+    }
+
+    // Junta as listas de cada termo: a pontuação de uma mensagem é quantos termos diferentes ela contém
+    private static void search(SearchSegment segment, Query query, Hits hits) {
+        int[][] lists = new int[query.terms.length][];
+        int total = 0;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = segment.docs(query.terms[i], query.prefix[i]);
+            total += lists[i].length;
+        }
+        int[] all = new int[total];
+        int n = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, all, n, list.length);
+            n += list.length;
+        }
+        Arrays.sort(all);
+        for (int i = 0; i < all.length; ) {
+            int doc = all[i];
+            int score = 0;
+            while (i < all.length && all[i] == doc) {
+                score++;
+                i++;
+            }
+            if (segment.room(doc) != query.room) {
+                continue;
+            }
+            long time = segment.time(doc);
+            if (time >= query.from && time <= query.to) {
+                hits.offer(segment, doc, score, time);
+            }
+        }
+    }
+
+    // Minúsculas, sem acentos ("sessão" acha "sessao"), separando em tudo que não é letra ou número.
+    // Sem regex: texto só ASCII (o caso comum) é percorrido uma vez; com acentos, decompõe antes (NFD).
+    static String[] tokenize(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder(MAX_TERM);
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            boolean letterOrDigit = c < 0x80
+                    ? (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    : Character.isLetterOrDigit(c);
+            if (letterOrDigit) {
+                if (word.length() < MAX_TERM) {
+                    word.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : Character.toLowerCase(c));
+                }
+            } else if (c >= 0x80 && Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue; // acento separado pela decomposição: a letra continua a mesma palavra
+            } else {
+                if (word.length() >= MIN_TERM) {
+                    words.add(word.toString());
+                }
+                word.setLength(0);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    static int[] sortedUnique(int[] docs) {
+        Arrays.sort(docs);
+        int n = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (n == 0 || docs[n - 1] != docs[i]) {
+                docs[n++] = docs[i];
+            }
+        }
+        return n == docs.length ? docs : Arrays.copyOf(docs, n);
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+}
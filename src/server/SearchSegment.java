@@ -0,0 +1,27 @@
+package server;
+
+// Parte do índice de busca com um número limitado de mensagens, numeradas de 0 a size-1 na ordem em que
+// chegaram. Só o segmento ativo (MemorySearchSegment) recebe mensagens novas; quando enche ele é selado e,
+// com --search-dir, gravado em arquivo e lido mapeado (FileSearchSegment).
+public interface SearchSegment {
+
+    // Mensagens que contêm o termo (ou algum termo que começa com ele), em ordem crescente e sem repetição
+    int[] docs(String term, boolean prefix);
+
+    int room(int doc);
+
+    int user(int doc);
+
+    long time(int doc);
+
+    String text(int doc);
+
+    int size();
+
+    long getMinTime();
+
+    long getMaxTime();
+
+    // Segmento descartado por ser o mais antigo: apaga o arquivo, se houver
+    void delete();
+}
@@ -0,0 +1,725 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Configurações do servidor lidas da linha de comando
+public class ServerConfig {
+    public enum ExecutionMode {
+        THREADS, // uma thread bloqueante por conexão (modo original)
+        VIRTUAL, // uma virtual thread por conexão
+        NIO      // poucas threads de event loop com Selector
+    }
+
+    private int port = 12345;
+    private ExecutionMode mode = ExecutionMode.THREADS;
+    private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int outboundQueueCapacity = 1024;
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+    private long blockTimeoutMs = 500;
+    private int historyMessages = 200;
+    private long historyBytes = 256 * 1024;
+    private boolean historyOffHeap = false;
+    private int historyReplay = 20;
+    private String logDir = null; // null: log de salas desativado
+    private int logSegmentBytes = 16 * 1024 * 1024;
+    private long logFsyncMs = 50;
+    private int logMaxSegments = 8;
+    private long logRetentionHours = 0; // 0: sem limite de idade
+    private int metricsPort = 0; // 0: endpoint de métricas desativado
+    private int roomsPageSize = 500;
+    private String nodeId = null;
+    private Map<String, InetSocketAddress> clusterNodes = new LinkedHashMap<>(); // vazio: sem cluster
+    private long flushDelayMicros = 0; // 0: escreve assim que a fila de saída esvazia
+    private int flushBytes = 16 * 1024;
+    private boolean tcpNoDelay = true;
+    private int sendBufferBytes = 0;    // 0: tamanho padrão do sistema
+    private int receiveBufferBytes = 0;
+    private double userRate = 0;  // mensagens por segundo de cada usuário; 0: sem limite
+    private int userBurst = 20;
+    private double roomRate = 0;  // mensagens por segundo de cada sala; 0: sem limite
+    private int roomBurst = 200;
+    private int deflateLevel = 6; // compressão usada para quem pede DEFLATE no login
+    private int maxRoomsPerConnection = 32;
+    private int acceptBacklog = 1024;  // conexões completas esperando accept (o padrão do Java é 50)
+    private int acceptors = 1;         // threads chamando accept
+    private double loginRate = 0;      // logins por segundo; 0: sem limite
+    private int loginBurst = 50;
+    private int maxConnections = 0;    // acima disto novos logins são recusados; 0: sem limite
+    private long maxQueuedMessages = 0; // idem, somando as filas de saída; 0: sem limite
+    private int resumeGraceSeconds = 30; // 0 = conexão caída encerra a sessão na hora
+    private int resumeBuffer = 256;      // frames guardados para uma sessão estacionada
+    private int heartbeatSeconds = 0;    // silêncio do cliente antes de um PING; 0: sem heartbeat
+    private int heartbeatTimeoutSeconds = 10; // espera por qualquer dado depois do PING
+    private int idleTimeoutSeconds = 0;  // sem comandos por este tempo: desconecta; 0: sem limite
+    private int searchSegments = 8;      // segmentos do índice de busca; 0: BUSCAR desativado
+    private int searchSegmentMessages = 20000;
+    private String searchDir = null;     // null: segmentos selados ficam no heap
+    private int searchHits = 20;
+    private String tlsKeystore = null;   // null: sem TLS, texto aberto como antes
+    private String tlsPassword = "";
+    private int tlsSessionCache = 20000; // sessões TLS guardadas para retomada; 0: sem limite
+    private int tlsSessionTimeoutSeconds = 3600;
+    private boolean tlsTickets = true;   // retomada por ticket (estado no cliente) em vez do cache
+    private int tlsPooledBuffers = 64;   // buffers do SSLEngine ociosos guardados por event loop
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    public void setMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = Math.max(1, eventLoops);
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = Math.max(1, outboundQueueCapacity);
+    }
+
+    // BLOCK espera na thread de quem faz o broadcast; no modo nio ela é o event loop, que pode ser o
+    // único a esvaziar a fila cheia e ainda atende as outras conexões. Lá BLOCK vale como DISCONNECT.
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        if (overflowPolicy == OutboundQueue.OverflowPolicy.BLOCK && mode == ExecutionMode.NIO) {
+            return OutboundQueue.OverflowPolicy.DISCONNECT;
+        }
+        return overflowPolicy;
+    }
+
+    public boolean isBlockPolicyIgnored() {
+        return overflowPolicy != getOverflowPolicy();
+    }
+
+    public void setOverflowPolicy(OutboundQueue.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        this.blockTimeoutMs = Math.max(0, blockTimeoutMs);
+    }
+
+    public int getHistoryMessages() {
+        return historyMessages;
+    }
+
+    public void setHistoryMessages(int historyMessages) {
+        this.historyMessages = Math.max(0, historyMessages);
+    }
+
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    public void setHistoryBytes(long historyBytes) {
+        this.historyBytes = Math.max(1, historyBytes);
+    }
+
+    public boolean isHistoryOffHeap() {
+        return historyOffHeap;
+    }
+
+    public void setHistoryOffHeap(boolean historyOffHeap) {
+        this.historyOffHeap = historyOffHeap;
+    }
+
+    public int getHistoryReplay() {
+        return historyReplay;
+    }
+
+    public void setHistoryReplay(int historyReplay) {
+        this.historyReplay = Math.max(0, historyReplay);
+    }
+
+    public String getLogDir() {
+        return logDir;
+    }
+
+    public void setLogDir(String logDir) {
+        this.logDir = logDir == null || logDir.isEmpty() ? null : logDir;
+    }
+
+    public boolean isLogEnabled() {
+        return logDir != null;
+    }
+
+    public int getLogSegmentBytes() {
+        return logSegmentBytes;
+    }
+
+    public void setLogSegmentBytes(int logSegmentBytes) {
+        this.logSegmentBytes = Math.max(4096, logSegmentBytes);
+    }
+
+    public long getLogFsyncMs() {
+        return logFsyncMs;
+    }
+
+    public void setLogFsyncMs(long logFsyncMs) {
+        this.logFsyncMs = Math.max(1, logFsyncMs);
+    }
+
+    public int getLogMaxSegments() {
+        return logMaxSegments;
+    }
+
+    public void setLogMaxSegments(int logMaxSegments) {
+        this.logMaxSegments = Math.max(0, logMaxSegments);
+    }
+
+    public long getLogRetentionHours() {
+        return logRetentionHours;
+    }
+
+    public void setLogRetentionHours(long logRetentionHours) {
+        this.logRetentionHours = Math.max(0, logRetentionHours);
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = Math.max(0, metricsPort);
+    }
+
+    public int getRoomsPageSize() {
+        return roomsPageSize;
+    }
+
+    public void setRoomsPageSize(int roomsPageSize) {
+        this.roomsPageSize = Math.max(1, roomsPageSize);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Map<String, InetSocketAddress> getClusterNodes() {
+        return clusterNodes;
+    }
+
+    // Formato: id@host:porta,id@host:porta,... (todos os nós, inclusive este)
+    public void setClusterNodes(String spec) {
+        Map<String, InetSocketAddress> parsed = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] idAndAddress = entry.trim().split("@", 2);
+            int colon = idAndAddress[1].lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(entry);
+            }
+            String host = idAndAddress[1].substring(0, colon);
+            int port = Integer.parseInt(idAndAddress[1].substring(colon + 1));
+            parsed.put(idAndAddress[0], new InetSocketAddress(host, port));
+        }
+        this.clusterNodes = parsed;
+    }
+
+    public boolean isClusterEnabled() {
+        return nodeId != null && clusterNodes.containsKey(nodeId);
+    }
+
+    public long getFlushDelayMicros() {
+        return flushDelayMicros;
+    }
+
+    public void setFlushDelayMicros(long flushDelayMicros) {
+        this.flushDelayMicros = Math.max(0, flushDelayMicros);
+    }
+
+    public int getFlushBytes() {
+        return flushBytes;
+    }
+
+    public void setFlushBytes(int flushBytes) {
+        this.flushBytes = Math.max(512, flushBytes);
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    public void setSendBufferBytes(int sendBufferBytes) {
+        this.sendBufferBytes = Math.max(0, sendBufferBytes);
+    }
+
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public void setReceiveBufferBytes(int receiveBufferBytes) {
+        this.receiveBufferBytes = Math.max(0, receiveBufferBytes);
+    }
+
+    public double getUserRate() {
+        return userRate;
+    }
+
+    public void setUserRate(double userRate) {
+        this.userRate = Math.max(0, userRate);
+    }
+
+    public int getUserBurst() {
+        return userBurst;
+    }
+
+    public void setUserBurst(int userBurst) {
+        this.userBurst = Math.max(1, userBurst);
+    }
+
+    public double getRoomRate() {
+        return roomRate;
+    }
+
+    public void setRoomRate(double roomRate) {
+        this.roomRate = Math.max(0, roomRate);
+    }
+
+    public int getRoomBurst() {
+        return roomBurst;
+    }
+
+    public void setRoomBurst(int roomBurst) {
+        this.roomBurst = Math.max(1, roomBurst);
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public void setAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = Math.max(1, acceptBacklog);
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = Math.max(1, acceptors);
+    }
+
+    public double getLoginRate() {
+        return loginRate;
+    }
+
+    public void setLoginRate(double loginRate) {
+        this.loginRate = Math.max(0, loginRate);
+    }
+
+    public int getLoginBurst() {
+        return loginBurst;
+    }
+
+    public void setLoginBurst(int loginBurst) {
+        this.loginBurst = Math.max(1, loginBurst);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(0, maxConnections);
+    }
+
+    public long getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    public void setMaxQueuedMessages(long maxQueuedMessages) {
+        this.maxQueuedMessages = Math.max(0, maxQueuedMessages);
+    }
+
+    public int getResumeGraceSeconds() {
+        return resumeGraceSeconds;
+    }
+
+    public void setResumeGraceSeconds(int resumeGraceSeconds) {
+        this.resumeGraceSeconds = Math.max(0, resumeGraceSeconds);
+    }
+
+    public boolean isResumeEnabled() {
+        return resumeGraceSeconds > 0;
+    }
+
+    public int getResumeBuffer() {
+        return resumeBuffer;
+    }
+
+    public void setResumeBuffer(int resumeBuffer) {
+        this.resumeBuffer = Math.max(1, resumeBuffer);
+    }
+
+    public int getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+
+    public void setHeartbeatSeconds(int heartbeatSeconds) {
+        this.heartbeatSeconds = Math.max(0, heartbeatSeconds);
+    }
+
+    public int getHeartbeatTimeoutSeconds() {
+        return heartbeatTimeoutSeconds;
+    }
+
+    public void setHeartbeatTimeoutSeconds(int heartbeatTimeoutSeconds) {
+        this.heartbeatTimeoutSeconds = Math.max(1, heartbeatTimeoutSeconds);
+    }
+
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = Math.max(0, idleTimeoutSeconds);
+    }
+
+    public int getSearchSegments() {
+        return searchSegments;
+    }
+
+    // Pelo menos 2: o ativo e um selado
+    public void setSearchSegments(int searchSegments) {
+        this.searchSegments = searchSegments <= 0 ? 0 : Math.max(2, searchSegments);
+    }
+
+    public boolean isSearchEnabled() {
+        return searchSegments > 0;
+    }
+
+    public int getSearchSegmentMessages() {
+        return searchSegmentMessages;
+    }
+
+    public void setSearchSegmentMessages(int searchSegmentMessages) {
+        this.searchSegmentMessages = Math.max(16, searchSegmentMessages);
+    }
+
+    public String getSearchDir() {
+        return searchDir;
+    }
+
+    public void setSearchDir(String searchDir) {
+        this.searchDir = searchDir == null || searchDir.isEmpty() ? null : searchDir;
+    }
+
+    public int getSearchHits() {
+        return searchHits;
+    }
+
+    public void setSearchHits(int searchHits) {
+        this.searchHits = Math.max(1, searchHits);
+    }
+
+    public String getTlsKeystore() {
+        return tlsKeystore;
+    }
+
+    public void setTlsKeystore(String tlsKeystore) {
+        this.tlsKeystore = tlsKeystore == null || tlsKeystore.isEmpty() ? null : tlsKeystore;
+    }
+
+    public boolean isTlsEnabled() {
+        return tlsKeystore != null;
+    }
+
+    public String getTlsPassword() {
+        return tlsPassword;
+    }
+
+    public void setTlsPassword(String tlsPassword) {
+        this.tlsPassword = tlsPassword == null ? "" : tlsPassword;
+    }
+
+    public int getTlsSessionCache() {
+        return tlsSessionCache;
+    }
+
+    public void setTlsSessionCache(int tlsSessionCache) {
+        this.tlsSessionCache = Math.max(0, tlsSessionCache);
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = Math.max(1, tlsSessionTimeoutSeconds);
+    }
+
+    public boolean isTlsTickets() {
+        return tlsTickets;
+    }
+
+    public void setTlsTickets(boolean tlsTickets) {
+        this.tlsTickets = tlsTickets;
+    }
+
+    public int getTlsPooledBuffers() {
+        return tlsPooledBuffers;
+    }
+
+    public void setTlsPooledBuffers(int tlsPooledBuffers) {
+        this.tlsPooledBuffers = Math.max(0, tlsPooledBuffers);
+    }
+
+    public int getMaxRoomsPerConnection() {
+        return maxRoomsPerConnection;
+    }
+
+    public void setMaxRoomsPerConnection(int maxRoomsPerConnection) {
+        this.maxRoomsPerConnection = Math.max(1, maxRoomsPerConnection);
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    public void setDeflateLevel(int deflateLevel) {
+        this.deflateLevel = Math.max(1, Math.min(9, deflateLevel));
+    }
+
+    // null quando o limite está desativado
+    public TokenBucket newUserLimiter() {
+        return userRate > 0 ? new TokenBucket(userRate, userBurst) : null;
+    }
+
+    public TokenBucket newLoginLimiter() {
+        return loginRate > 0 ? new TokenBucket(loginRate, loginBurst) : null;
+    }
+
+    public TokenBucket newRoomLimiter() {
+        return roomRate > 0 ? new TokenBucket(roomRate, roomBurst) : null;
+    }
+
+    public FlushPolicy newFlushPolicy() {
+        return new FlushPolicy(flushDelayMicros * 1000, flushBytes);
+    }
+
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundQueueCapacity, getOverflowPolicy(), blockTimeoutMs);
+    }
+
+    // Formato: [porta] [--chave=valor ...]
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                try {
+                    config.setPort(Integer.parseInt(arg));
+                } catch (NumberFormatException e) {
+                    System.err.println("Porta inválida, usando porta padrão: " + config.getPort());
+                }
+                continue;
+            }
+
+            String[] parts = arg.substring(2).split("=", 2);
+            String key = parts[0];
+            String value = parts.length > 1 ? parts[1] : "";
+
+            try {
+                config.apply(key, value);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Opção inválida ignorada: " + arg);
+            }
+        }
+        return config;
+    }
+
+    private void apply(String key, String value) {
+        switch (key) {
+            case "mode":
+                setMode(ExecutionMode.valueOf(value.toUpperCase()));
+                break;
+            case "event-loops":
+                setEventLoops(Integer.parseInt(value));
+                break;
+            case "queue-capacity":
+                setOutboundQueueCapacity(Integer.parseInt(value));
+                break;
+            case "overflow-policy":
+                setOverflowPolicy(OutboundQueue.OverflowPolicy.valueOf(value.toUpperCase()));
+                break;
+            case "block-timeout-ms":
+                setBlockTimeoutMs(Long.parseLong(value));
+                break;
+            case "history-messages":
+                setHistoryMessages(Integer.parseInt(value));
+                break;
+            case "history-bytes":
+                setHistoryBytes(Long.parseLong(value));
+                break;
+            case "history-offheap":
+                setHistoryOffHeap(value.isEmpty() || Boolean.parseBoolean(value));
+                break;
+            case "history-replay":
+                setHistoryReplay(Integer.parseInt(value));
+                break;
+            case "log-dir":
+                setLogDir(value);
+                break;
+            case "log-segment-kb":
+                setLogSegmentBytes(Math.toIntExact(Long.parseLong(value) * 1024));
+                break;
+            case "log-fsync-ms":
+                setLogFsyncMs(Long.parseLong(value));
+                break;
+            case "log-max-segments":
+                setLogMaxSegments(Integer.parseInt(value));
+                break;
+            case "log-retention-hours":
+                setLogRetentionHours(Long.parseLong(value));
+                break;
+            case "rooms-page-size":
+                setRoomsPageSize(Integer.parseInt(value));
+                break;
+            case "node-id":
+                setNodeId(value);
+                break;
+            case "cluster":
+                try {
+                    setClusterNodes(value);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException(value);
+                }
+                break;
+            case "metrics-port":
+                setMetricsPort(Integer.parseInt(value));
+                break;
+            case "flush-delay-us":
+                setFlushDelayMicros(Long.parseLong(value));
+                break;
+            case "flush-bytes":
+                setFlushBytes(Integer.parseInt(value));
+                break;
+            case "tcp-nodelay":
+                setTcpNoDelay(value.isEmpty() || Boolean.parseBoolean(value));
+                break;
+            case "send-buffer-kb":
+                setSendBufferBytes(Integer.parseInt(value) * 1024);
+                break;
+            case "receive-buffer-kb":
+                setReceiveBufferBytes(Integer.parseInt(value) * 1024);
+                break;
+            case "user-rate":
+                setUserRate(Double.parseDouble(value));
+                break;
+            case "user-burst":
+                setUserBurst(Integer.parseInt(value));
+                break;
+            case "room-rate":
+                setRoomRate(Double.parseDouble(value));
+                break;
+            case "room-burst":
+                setRoomBurst(Integer.parseInt(value));
+                break;
+            case "accept-backlog":
+                setAcceptBacklog(Integer.parseInt(value));
+                break;
+            case "acceptors":
+                setAcceptors(Integer.parseInt(value));
+                break;
+            case "login-rate":
+                setLoginRate(Double.parseDouble(value));
+                break;
+            case "login-burst":
+                setLoginBurst(Integer.parseInt(value));
+                break;
+            case "max-connections":
+                setMaxConnections(Integer.parseInt(value));
+                break;
+            case "max-queued-messages":
+                setMaxQueuedMessages(Long.parseLong(value));
+                break;
+            case "resume-grace-s":
+                setResumeGraceSeconds(Integer.parseInt(value));
+                break;
+            case "resume-buffer":
+                setResumeBuffer(Integer.parseInt(value));
+                break;
+            case "heartbeat-s":
+                setHeartbeatSeconds(Integer.parseInt(value));
+                break;
+            case "heartbeat-timeout-s":
+                setHeartbeatTimeoutSeconds(Integer.parseInt(value));
+                break;
+            case "idle-timeout-s":
+                setIdleTimeoutSeconds(Integer.parseInt(value));
+                break;
+            case "search-segments":
+                setSearchSegments(Integer.parseInt(value));
+                break;
+            case "search-segment-messages":
+                setSearchSegmentMessages(Integer.parseInt(value));
+                break;
+            case "search-dir":
+                setSearchDir(value);
+                break;
+            case "search-hits":
+                setSearchHits(Integer.parseInt(value));
+                break;
+            case "tls-keystore":
+                setTlsKeystore(value);
+                break;
+            case "tls-password":
+                setTlsPassword(value);
+                break;
+            case "tls-session-cache":
+                setTlsSessionCache(Integer.parseInt(value));
+                break;
+            case "tls-session-timeout-s":
+                setTlsSessionTimeoutSeconds(Integer.parseInt(value));
+                break;
+            case "tls-tickets":
+                setTlsTickets(value.isEmpty() || Boolean.parseBoolean(value));
+                break;
+            case "tls-pooled-buffers":
+                setTlsPooledBuffers(Integer.parseInt(value));
+                break;
+            case "max-rooms-per-connection":
+                setMaxRoomsPerConnection(Integer.parseInt(value));
+                break;
+            case "deflate-level":
+                setDeflateLevel(Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException(key);
+        }
+    }
+}
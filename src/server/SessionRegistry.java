@@ -0,0 +1,55 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Tokens de retomada das sessões com login. Uma sessão cuja conexão caiu sem DESCONECTAR fica estacionada
+// por graceSeconds (ainda nas salas, com o nome reservado) esperando um RETOMAR:token; se ninguém retomar,
+// a roda de timers do servidor encerra a sessão de vez.
+public class SessionRegistry {
+    private final long graceSeconds;
+    private final ConcurrentHashMap<String, ClientHandler> sessions = new ConcurrentHashMap<>();
+    private final ChatServer server;
+    private final SecureRandom random = new SecureRandom();
+
+    public SessionRegistry(ChatServer server, long graceSeconds) {
+        this.server = server;
+        this.graceSeconds = graceSeconds;
+    }
+
+    // 128 bits aleatórios; o token é a única credencial para retomar a sessão
+    public String register(ClientHandler session) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, session);
+        return token;
+    }
+
+    public void unregister(String token, ClientHandler session) {
+        sessions.remove(token, session);
+    }
+
+    public long getGraceSeconds() {
+        return graceSeconds;
+    }
+
+    // Cada ClientHandler é estacionado no máximo uma vez: quem retoma é sempre uma conexão nova
+    public void park(String token, ClientHandler session) {
+        server.getTimers().schedule(() -> expire(token, session), TimeUnit.SECONDS.toNanos(graceSeconds));
+    }
+
+    // Remove o token e devolve a sessão (estacionada ou ainda conectada); só um entre RETOMAR e a expiração consegue
+    public ClientHandler claim(String token) {
+        return sessions.remove(token);
+    }
+
+    // Na thread da roda: o fim da sessão avisa as salas, então vai para o executor do servidor
+    private void expire(String token, ClientHandler session) {
+        if (sessions.remove(token, session)) {
+            server.execute(session::endParkedSession);
+        }
+    }
+}
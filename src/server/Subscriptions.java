@@ -0,0 +1,76 @@
+package server;
+
+import java.util.Arrays;
+
+// Salas (por id) em que uma conexão está inscrita, e a sala ativa: a que recebe MENSAGEM, HISTORICO,
+// EXPULSAR e SAIR_SALA sem sala explícita. É o índice reverso do RoomManager (usuário -> salas): só ele
+// inscreve e remove, inclusive em expulsões e salas encerradas, e a saída na desconexão percorre só isto.
+public class Subscriptions {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] rooms = new int[4];
+    private int size;
+    private int active; // 0 = nenhuma
+
+    // A sala recém-inscrita passa a ser a ativa
+    public synchronized boolean add(int roomId) {
+        if (indexOf(roomId) >= 0) {
+            return false;
+        }
+        if (size == rooms.length) {
+            rooms = Arrays.copyOf(rooms, size * 2);
+        }
+        rooms[size++] = roomId;
+        active = roomId;
+        return true;
+    }
+
+    // Se a sala removida era a ativa, a inscrição mais recente que sobrou assume
+    public synchronized boolean remove(int roomId) {
+        int index = indexOf(roomId);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(rooms, index + 1, rooms, index, size - index - 1);
+        size--;
+        if (active == roomId) {
+            active = size > 0 ? rooms[size - 1] : 0;
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(int roomId) {
+        return indexOf(roomId) >= 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized boolean setActive(int roomId) {
+        if (indexOf(roomId) < 0) {
+            return false;
+        }
+        active = roomId;
+        return true;
+    }
+
+    // Cópia, para percorrer fora do lock (a saída de cada sala mexe nesta mesma lista)
+    public synchronized int[] toArray() {
+        return size == 0 ? EMPTY : Arrays.copyOf(rooms, size);
+    }
+
+    // Poucas salas por conexão: busca linear num array é mais barata que um mapa
+    private int indexOf(int roomId) {
+        for (int i = 0; i < size; i++) {
+            if (rooms[i] == roomId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
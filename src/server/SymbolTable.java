@@ -0,0 +1,96 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Associa nomes (usuários, salas) a ids inteiros compactos. Dentro do servidor o roteamento usa
+// só os ids; o nome é resolvido de volta (name) apenas na borda, ao codificar um frame ou um log.
+// Cada id conta quem o guarda (um nome com login, uma sala viva, um registro do histórico fora do heap,
+// uma mensagem no índice de busca): quando a última referência é solta o id volta a ficar livre e é
+// reaproveitado, então a tabela acompanha os nomes em uso e não todos os que já apareceram.
+public class SymbolTable {
+    // Compartilhadas pelo processo inteiro, para que um Frame resolva os nomes sem referência ao servidor
+    public static final SymbolTable USERS = new SymbolTable();
+    public static final SymbolTable ROOMS = new SymbolTable();
+
+    private static final class Symbol {
+        final int id;
+        final String name;
+        final AtomicInteger refs = new AtomicInteger();
+
+        Symbol(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Symbol> byName = new ConcurrentHashMap<>();
+    private final IdTable<Symbol> byId = new IdTable<>();
+    // Ids livres para reaproveitar; protegidos pelo lock da tabela
+    private int[] free = new int[16];
+    private int freeCount;
+    private int nextId = 1;
+
+    // Id do nome com uma referência a mais (cria o id se o nome não está em uso); soltar com release
+    public int acquire(String name) {
+        return byName.compute(name, (n, symbol) -> {
+            if (symbol == null) {
+                symbol = new Symbol(allocate(), n);
+                byId.set(symbol.id, symbol);
+            }
+            symbol.refs.incrementAndGet();
+            return symbol;
+        }).id;
+    }
+
+    // Mais uma referência a um id que quem chama já segura (sem procurar pelo nome)
+    public void retain(int id) {
+        Symbol symbol = byId.get(id);
+        if (symbol != null) {
+            symbol.refs.incrementAndGet();
+        }
+    }
+
+    public void release(int id) {
+        Symbol symbol = byId.get(id);
+        if (symbol == null || symbol.refs.decrementAndGet() > 0) {
+            return;
+        }
+        // Um acquire do mesmo nome pode ter voltado a contar entre o decremento e aqui: confere sob o lock do mapa
+        byName.computeIfPresent(symbol.name, (n, current) -> {
+            if (current != symbol || symbol.refs.get() > 0) {
+                return current;
+            }
+            byId.remove(symbol.id, symbol);
+            recycle(symbol.id);
+            return null;
+        });
+    }
+
+    // Id de um nome em uso, ou 0 (sem criar um id novo para nomes vindos do cliente)
+    public int find(String name) {
+        Symbol symbol = byName.get(name);
+        return symbol != null ? symbol.id : 0;
+    }
+
+    public String name(int id) {
+        Symbol symbol = byId.get(id);
+        return symbol != null ? symbol.name : null;
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    private synchronized int allocate() {
+        return freeCount > 0 ? free[--freeCount] : nextId++;
+    }
+
+    private synchronized void recycle(int id) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = id;
+    }
+}
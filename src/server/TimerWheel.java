@@ -0,0 +1,135 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Roda de timers (hashed timing wheel) compartilhada por todas as conexões: heartbeats, inatividade e
+// expiração das sessões estacionadas. Cada tick percorre só um balde (os timers que caem nele) mais os
+// agendados desde o tick anterior, então o custo não cresce com o número de conexões, ao contrário de um
+// timer por conexão ou de uma varredura de todos os clientes. Resolução de um tick: serve para prazos
+// de segundos; a janela de flush do modo NIO, em microssegundos, continua nos timers do event loop.
+public class TimerWheel implements Runnable {
+    private final long tickNanos;
+    private final Timeout[] buckets; // cabeça de uma lista duplamente ligada por balde; só a thread da roda mexe
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>(); // agendados por outras threads
+    private final Thread thread;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    // Devolvido por schedule; cancel é só uma marca, o timer sai do balde quando a roda passa por ele
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline; // em nanossegundos desde o início da roda
+        private final AtomicBoolean done = new AtomicBoolean();
+        private long rounds; // voltas completas que ainda faltam
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // false se já executou (ou já tinha sido cancelado)
+        public boolean cancel() {
+            return done.compareAndSet(false, true);
+        }
+    }
+
+    public TimerWheel(long tick, TimeUnit unit, int wheelSize, String threadName) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1; // potência de 2: índice com máscara
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // A tarefa roda na thread da roda: deve ser curta e não bloquear (trabalho pesado vai para um executor)
+    public Timeout schedule(Runnable task, long delayNanos) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + Math.max(0, delayNanos));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long deadline = (tick + 1) * tickNanos;
+            long sleep = deadline - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    // Coloca cada timer novo no balde do seu prazo, com as voltas que faltam até lá
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.done.get()) {
+                continue;
+            }
+            long ticks = Math.max(tick, timeout.deadline / tickNanos); // já vencido: vai no balde atual
+            timeout.rounds = (ticks - tick) / buckets.length;
+            int index = (int) (ticks & mask);
+            timeout.next = buckets[index];
+            if (timeout.next != null) {
+                timeout.next.prev = timeout;
+            }
+            buckets[index] = timeout;
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds > 0 && !timeout.done.get()) {
+                timeout.rounds--;
+            } else {
+                unlink(timeout);
+                if (timeout.cancel()) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Erro num timer: " + e);
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int index = (int) (tick & mask);
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+    }
+}
@@ -0,0 +1,271 @@
+package server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// TLS do modo NIO: um SSLEngine entre o socket e o ClientHandler. Tudo roda na thread do event loop, menos
+// as tarefas pesadas do handshake (assinatura, troca de chaves), que vão para o executor do servidor para
+// que uma enxurrada de handshakes não atrase as outras conexões do loop. Os buffers de rede e de texto
+// aberto vêm do BufferPool do loop e voltam para ele assim que esvaziam.
+public class TlsEngine {
+    private static final ByteBuffer[] NOTHING = {ByteBuffer.allocate(0)};
+
+    private final SSLEngine engine;
+    private final SocketChannel channel;
+    private final NioConnection connection;
+    private final NioEventLoop loop;
+    private final ChatServer server;
+    private final Metrics metrics;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private ByteBuffer netIn;  // registro TLS ainda incompleto; null quando não sobrou nada
+    private ByteBuffer netOut; // bytes cifrados que o socket ainda não aceitou; null quando tudo saiu
+    private boolean handshakeDone;
+    private boolean tasksRunning;
+    private boolean unwrapping; // o handler pode fechar a conexão no meio do unwrap (DESCONECTAR)
+    private boolean closed;
+
+    public TlsEngine(SSLEngine engine, SocketChannel channel, NioConnection connection, NioEventLoop loop,
+                     ChatServer server) throws SSLException {
+        this.engine = engine;
+        this.channel = channel;
+        this.connection = connection;
+        this.loop = loop;
+        this.server = server;
+        this.metrics = server.getMetrics();
+        engine.beginHandshake();
+    }
+
+    // Lê do socket e entrega ao handler o texto dos registros completos; false no fim da conexão
+    public boolean read(ClientHandler handler) throws IOException {
+        if (netIn == null) {
+            netIn = loop.getTlsNetBuffers().take();
+        }
+        if (channel.read(netIn) < 0) {
+            return false;
+        }
+        return unwrap(handler);
+    }
+
+    private boolean unwrap(ClientHandler handler) throws IOException {
+        if (netIn == null) {
+            return true;
+        }
+        netIn.flip();
+        ByteBuffer app = loop.getTlsAppBuffers().take();
+        unwrapping = true;
+        try {
+            while (netIn.hasRemaining() && !tasksRunning && !closed) {
+                SSLEngineResult result = engine.unwrap(netIn, app);
+                if (app.position() > 0) {
+                    app.flip();
+                    handler.onBytes(app);
+                    app.clear();
+                }
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    return false; // close_notify do cliente
+                }
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    // Registro incompleto: espera mais bytes (o buffer do pool cabe o maior registro)
+                    if (netIn.limit() == netIn.capacity() && netIn.position() == 0) {
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    loop.getTlsAppBuffers().release(app);
+                    app = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+                    continue;
+                }
+                if (!handshake(result.getHandshakeStatus())) {
+                    break;
+                }
+            }
+        } catch (SSLException e) {
+            if (!handshakeDone) {
+                metrics.tlsHandshakeFailed();
+            }
+            throw e;
+        } finally {
+            unwrapping = false;
+            loop.getTlsAppBuffers().release(app);
+            if (netIn.hasRemaining() && !closed) {
+                netIn.compact();
+            } else {
+                loop.getTlsNetBuffers().release(netIn);
+                netIn = null;
+            }
+        }
+        return true;
+    }
+
+    // Buffer cheio com parte de um registro maior que ele: cresce, fora do pool
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        bigger.put(buffer);
+        bigger.flip();
+        return bigger;
+    }
+
+    // Avança o handshake, e também as mensagens que vêm depois dele (NewSessionTicket, KeyUpdate);
+    // false enquanto uma tarefa roda fora do loop
+    private boolean handshake(HandshakeStatus status) throws IOException {
+        while (true) {
+            switch (status) {
+                case NEED_TASK:
+                    runTasks();
+                    return false;
+                case NEED_WRAP:
+                    SSLEngineResult result = wrap(NOTHING);
+                    flushNet();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        return true; // close_notify já foi
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && netOut != null) {
+                        connection.requestWrite(); // o write continua o handshake quando o socket esvaziar
+                        return true;
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+                case FINISHED:
+                    finished();
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NOT_HANDSHAKING:
+                    if (!handshakeDone) {
+                        finished();
+                    }
+                    return true;
+                default:
+                    return true; // NEED_UNWRAP: faltam bytes do cliente
+            }
+        }
+    }
+
+    private void finished() {
+        handshakeDone = true;
+        metrics.tlsHandshake(engine.getSession(), startMillis, System.nanoTime() - startNanos);
+        connection.requestWrite(); // frames enfileirados durante o handshake
+    }
+
+    private void runTasks() {
+        tasksRunning = true;
+        connection.setReadInterest(false);
+        server.execute(() -> {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            loop.execute(connection::tlsTasksDone);
+        });
+    }
+
+    // Na thread do loop, depois das tarefas: continua o handshake e abre o que chegou enquanto isso
+    public boolean resume(ClientHandler handler) throws IOException {
+        tasksRunning = false;
+        if (!handshake(engine.getHandshakeStatus())) {
+            return true;
+        }
+        return unwrap(handler);
+    }
+
+    // Cifra e escreve o máximo possível de srcs (as posições avançam com o que foi consumido). O que o
+    // socket não aceitou fica em netOut para o próximo OP_WRITE; texto enfileirado durante o handshake
+    // espera ele terminar.
+    public void write(ByteBuffer[] srcs) throws IOException {
+        while (true) {
+            flushNet();
+            if (netOut != null || tasksRunning) {
+                return;
+            }
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_WRAP) {
+                handshake(status);
+                if (engine.isOutboundDone()) {
+                    return;
+                }
+                continue;
+            }
+            if (!handshakeDone || !hasRemaining(srcs)) {
+                return;
+            }
+            SSLEngineResult result = wrap(srcs);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Conexão TLS encerrada");
+            }
+            if (result.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING) {
+                handshake(result.getHandshakeStatus());
+            }
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SSLEngineResult wrap(ByteBuffer[] srcs) throws SSLException {
+        if (netOut == null) {
+            netOut = loop.getTlsNetBuffers().take();
+        }
+        return engine.wrap(srcs, netOut);
+    }
+
+    private void flushNet() throws IOException {
+        if (netOut == null) {
+            return;
+        }
+        netOut.flip();
+        if (netOut.hasRemaining()) {
+            long written = channel.write(netOut);
+            metrics.socketWrite();
+            metrics.addBytesOut(written);
+        }
+        if (netOut.hasRemaining()) {
+            netOut.compact();
+        } else {
+            loop.getTlsNetBuffers().release(netOut);
+            netOut = null;
+        }
+    }
+
+    public boolean hasPendingOutput() {
+        return netOut != null;
+    }
+
+    // Texto não pode sair ainda: o handshake espera bytes do cliente ou uma tarefa
+    public boolean isHandshaking() {
+        return !handshakeDone || tasksRunning;
+    }
+
+    // Fechamento: tenta mandar o close_notify (sem esperar o socket) e devolve os buffers ao pool
+    public void close() {
+        closed = true;
+        if (handshakeDone && !tasksRunning) {
+            engine.closeOutbound();
+            try {
+                write(NOTHING);
+            } catch (IOException e) {
+                // o socket vai ser fechado de qualquer forma
+            }
+        }
+        if (netIn != null && !unwrapping) {
+            loop.getTlsNetBuffers().release(netIn);
+            netIn = null;
+        }
+        if (netOut != null) {
+            loop.getTlsNetBuffers().release(netOut);
+            netOut = null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket sem lock, na forma GCRA: o estado é um único long (o instante a partir do qual o
+// balde estaria cheio de novo), atualizado com CAS. Cada mensagem "custa" intervalNanos; cabem até
+// burst mensagens seguidas antes de o limite de perSecond valer.
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(double perSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    // 0 se a mensagem pode passar; senão, em quantos nanossegundos haverá uma ficha
+    public long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            // Comparação por diferença: System.nanoTime pode ser negativo
+            long base = current - now > 0 ? current : now;
+            long wait = base - toleranceNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, base + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import protocol.Reply;
+
+import java.util.List;
+import java.util.Objects;
+
+// Estado de codificação de uma conexão. Usado só pelo writer da conexão, por isso não precisa de lock.
+// No protocolo binário, envia DEFINE_USUARIO/DEFINE_SALA antes do primeiro frame que usa cada id, e de novo
+// quando o id volta com outro nome (a SymbolTable reaproveita ids liberados). Os mapas guardam só os ids
+// que esta conexão já recebeu, não crescem até o maior id do servidor.
+public class WireEncoder {
+    private boolean binary;
+    private final IntMap<String> knownUsers = new IntMap<>();
+    private final IntMap<String> knownRooms = new IntMap<>();
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Acrescenta em out os frames que devem ser escritos para representar este frame
+    public void encode(Frame frame, List<Frame> out) {
+        if (frame.isProtocolSwitch()) {
+            binary = true;
+            return;
+        }
+        if (frame.isDeflateStart()) {
+            return; // tratado pelo writer, que troca o destino dos bytes
+        }
+        if (frame.isBatch()) {
+            for (Frame part : frame.getParts()) {
+                encode(part, out);
+            }
+            return;
+        }
+
+        if (binary) {
+            Reply type = frame.getType();
+            if (type == Reply.MSG && define(knownUsers, frame.getUserId(), frame.getUsername())) {
+                out.add(Frame.defineUser(frame.getUserId(), frame.getUsername()));
+            }
+            if ((type == Reply.MSG || type == Reply.ECO) && define(knownRooms, frame.getRoomId(), frame.getRoomName())) {
+                out.add(Frame.defineRoom(frame.getRoomId(), frame.getRoomName()));
+            }
+        }
+        out.add(frame);
+    }
+
+    // true se o cliente ainda não conhece este id com este nome (0: sem usuário ou sala)
+    private static boolean define(IntMap<String> known, int id, String name) {
+        if (id == 0 || Objects.equals(known.get(id), name)) {
+            return false;
+        }
+        known.put(id, name);
+        return true;
+    }
+}